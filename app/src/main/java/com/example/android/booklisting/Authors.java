@@ -0,0 +1,116 @@
+package com.example.android.booklisting;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.WeakHashMap;
+
+/**
+ * Immutable list of the authors of a book. Instances are interned, so all books by the same
+ * authors share one instance and its display string instead of keeping their own copies.
+ */
+final class Authors {
+
+    /** Delimiter for book authors if the book has more than one author */
+    static final String DELIMITER = ", ";
+
+    /**
+     * Separator of the names in the stored form, the ASCII unit separator, which unlike
+     * {@link #DELIMITER} never appears in names like "Tolkien, J. R. R."
+     */
+    private static final char STORED_SEPARATOR = '\u001f';
+
+    /** Interned instances, dropped once no book refers to them anymore */
+    private static final WeakHashMap<Authors, WeakReference<Authors>> sInterned = new WeakHashMap<>();
+
+    private final String[] mNames;
+
+    private final String mDisplayName;
+
+    private Authors(String[] names) {
+        mNames = names;
+        StringBuilder displayName = new StringBuilder();
+        for (String name : names) {
+            if (displayName.length() > 0) {
+                displayName.append(DELIMITER);
+            }
+            displayName.append(name);
+        }
+        mDisplayName = displayName.toString();
+    }
+
+    /**
+     * Return the shared instance for the given author names, or null if there are none.
+     */
+    static Authors of(List<String> names) {
+        if (names == null || names.isEmpty()) {
+            return null;
+        }
+        return intern(new Authors(names.toArray(new String[names.size()])));
+    }
+
+    /**
+     * Return the shared instance for the authors stored with {@link #toStoredString()},
+     * or null if the string is null or empty.
+     */
+    static Authors fromStoredString(String storedString) {
+        if (storedString == null || storedString.isEmpty()) {
+            return null;
+        }
+        return intern(new Authors(storedString.split(String.valueOf(STORED_SEPARATOR), -1)));
+    }
+
+    private static Authors intern(Authors authors) {
+        synchronized (sInterned) {
+            WeakReference<Authors> reference = sInterned.get(authors);
+            Authors interned = reference == null ? null : reference.get();
+            if (interned != null) {
+                return interned;
+            }
+            sInterned.put(authors, new WeakReference<>(authors));
+            return authors;
+        }
+    }
+
+    int size() {
+        return mNames.length;
+    }
+
+    String get(int index) {
+        return mNames[index];
+    }
+
+    /**
+     * Return the author names in a form which can be stored and turned back into the same
+     * names with {@link #fromStoredString(String)}, even if they contain {@link #DELIMITER}.
+     */
+    String toStoredString() {
+        StringBuilder storedString = new StringBuilder(mDisplayName.length());
+        for (String name : mNames) {
+            if (storedString.length() > 0) {
+                storedString.append(STORED_SEPARATOR);
+            }
+            storedString.append(name);
+        }
+        return storedString.toString();
+    }
+
+    /**
+     * Return the author names joined with {@link #DELIMITER}.
+     */
+    @Override
+    public String toString() {
+        return mDisplayName;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Authors && Arrays.equals(mNames, ((Authors) other).mNames);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mNames);
+    }
+
+}
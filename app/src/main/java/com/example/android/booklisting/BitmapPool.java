@@ -0,0 +1,109 @@
+package com.example.android.booklisting;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Pool of bitmaps which are no longer used and whose memory can be reused
+ * to decode new thumbnails through {@link BitmapFactory.Options#inBitmap},
+ * instead of allocating a new bitmap for every book.
+ */
+final class BitmapPool {
+
+    private final long mMaxBytes;
+
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+
+    private long mBytes;
+
+    BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Add a bitmap which is not shown anywhere anymore to the pool. The oldest bitmaps
+     * are dropped if the pool becomes bigger than its limit.
+     */
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        mBitmaps.addLast(bitmap);
+        mBytes += getSize(bitmap);
+        while (mBytes > mMaxBytes && !mBitmaps.isEmpty()) {
+            mBytes -= getSize(mBitmaps.removeFirst());
+        }
+    }
+
+    /**
+     * Remove and return a bitmap which can be used to decode an image of the given size
+     * with the given options, or null if there is no such bitmap in the pool.
+     */
+    synchronized Bitmap get(int width, int height, BitmapFactory.Options options) {
+        Iterator<Bitmap> iterator = mBitmaps.iterator();
+        while (iterator.hasNext()) {
+            Bitmap candidate = iterator.next();
+            if (canReuse(candidate, width, height, options)) {
+                iterator.remove();
+                mBytes -= getSize(candidate);
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    synchronized void clear() {
+        mBitmaps.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * Drop the oldest bitmaps until the pool uses at most the given number of bytes.
+     */
+    synchronized void trimTo(long maxBytes) {
+        while (mBytes > maxBytes && !mBitmaps.isEmpty()) {
+            mBytes -= getSize(mBitmaps.removeFirst());
+        }
+    }
+
+    synchronized long getBytes() {
+        return mBytes;
+    }
+
+    private static boolean canReuse(Bitmap candidate, int width, int height,
+                                    BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Since KitKat any bitmap big enough can be reused
+            int sampledWidth = width / options.inSampleSize;
+            int sampledHeight = height / options.inSampleSize;
+            int byteCount = sampledWidth * sampledHeight * getBytesPerPixel(options.inPreferredConfig);
+            return byteCount <= candidate.getAllocationByteCount();
+        }
+        // Earlier versions can reuse only bitmaps of exactly the same size, without sampling
+        return candidate.getWidth() == width
+                && candidate.getHeight() == height
+                && options.inSampleSize == 1
+                && candidate.getConfig() == options.inPreferredConfig;
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+
+    private static int getSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+}
@@ -1,29 +1,70 @@
 package com.example.android.booklisting;
 
-import android.graphics.Bitmap;
+import java.util.List;
 
+/**
+ * Book found by a search. Long sessions keep thousands of books in memory, so the model is
+ * compact: authors are shared between books, the publication date is packed into an int and
+ * the preview link is built from the volume ID when it is needed.
+ */
 public class Book {
 
+    /** Value of the packed publication date when the book has none */
+    static final int NO_DATE = 0;
+
+    /** Saleability of the book in the Google Play store, from the saleInfo of the volume */
+    static final int SALEABILITY_UNKNOWN = 0;
+    static final int SALEABILITY_FOR_SALE = 1;
+    static final int SALEABILITY_FREE = 2;
+    static final int SALEABILITY_NOT_FOR_SALE = 3;
+    static final int SALEABILITY_FOR_PREORDER = 4;
+
+    /** Number of saleability values, for arrays indexed by them */
+    static final int SALEABILITY_COUNT = 5;
+
+    private static final String PREVIEW_LINK_BASE = "https://books.google.com/books?id=";
+
+    /** Approximate size of a book object without its strings, and of a string without its characters */
+    private static final int OBJECT_BYTES = 40;
+    private static final int STRING_BYTES = 40;
+
+    /** Google Books volume ID */
+    private final String mId;
+
     private final String mThumbnailUrl;
 
     private final String mTitle;
 
-    private final String mAuthor;
+    private final Authors mAuthors;
 
-    private final String mPublishedDate;
+    /** Publication date as yyyymmdd, where the month and the day are 0 if the date doesn't have them */
+    private final int mPublishedDate;
 
+    /** Preview link of a book without a volume ID, null for the others */
     private final String mPreviewLink;
 
-    private Bitmap mBookImageBitmap;
+    /** One of the SALEABILITY constants */
+    private final byte mSaleability;
+
+    public Book(String id, String thumbnailUrl, String title, List<String> authors, String publishedDate,
+                String previewLink) {
+        this(id, thumbnailUrl, title, Authors.of(authors), packDate(publishedDate), previewLink,
+                SALEABILITY_UNKNOWN);
+    }
 
-    public Book(String thumbnailUrl, String title, String author, String publishedDate,
-                String previewLink, Bitmap bookImageBitmap) {
+    Book(String id, String thumbnailUrl, String title, Authors authors, int publishedDate,
+         String previewLink, int saleability) {
+        this.mId = id;
         this.mThumbnailUrl = thumbnailUrl;
         this.mTitle = title;
-        this.mAuthor = author;
+        this.mAuthors = authors;
         this.mPublishedDate = publishedDate;
-        this.mPreviewLink = previewLink;
-        this.mBookImageBitmap = bookImageBitmap;
+        this.mPreviewLink = id == null ? previewLink : null;
+        this.mSaleability = (byte) saleability;
+    }
+
+    public String getId() {
+        return mId;
     }
 
     public String getThumbnailUrl() {
@@ -34,24 +75,162 @@ public class Book {
         return mTitle;
     }
 
+    /**
+     * Return the names of the authors joined with {@link Authors#DELIMITER}, or null if unknown.
+     */
     public String getAuthor() {
-        return mAuthor;
+        return mAuthors == null ? null : mAuthors.toString();
+    }
+
+    Authors getAuthors() {
+        return mAuthors;
     }
 
+    /**
+     * Return the publication date as yyyy, yyyy-mm or yyyy-mm-dd, or null if unknown.
+     */
     public String getPublishedDate() {
+        return formatDate(mPublishedDate);
+    }
+
+    /**
+     * Return the publication date packed as yyyymmdd, or {@link #NO_DATE}.
+     */
+    int getPackedPublishedDate() {
         return mPublishedDate;
     }
 
+    /**
+     * Return the saleability of the book, one of the SALEABILITY constants.
+     */
+    int getSaleability() {
+        return mSaleability;
+    }
+
+    /**
+     * Return the approximate number of bytes of memory used by the book and its own strings.
+     * The authors are shared between books, so they are not counted.
+     */
+    int getRetainedBytes() {
+        return OBJECT_BYTES + getRetainedBytes(mId) + getRetainedBytes(mThumbnailUrl)
+                + getRetainedBytes(mTitle) + getRetainedBytes(mPreviewLink);
+    }
+
+    private static int getRetainedBytes(String value) {
+        return value == null ? 0 : STRING_BYTES + 2 * value.length();
+    }
+
+    /**
+     * Return the key identifying the book across pages and result sets: its volume ID,
+     * or its preview link if it has none.
+     */
+    String getKey() {
+        return mId != null ? mId : mPreviewLink;
+    }
+
+    /**
+     * Return true if the book has the same title, authors, date, thumbnail and saleability
+     * as the other one.
+     */
+    boolean hasSameContent(Book other) {
+        return equal(mTitle, other.mTitle)
+                // Authors are interned, so the same authors are the same instance
+                && mAuthors == other.mAuthors
+                && mPublishedDate == other.mPublishedDate
+                && equal(mThumbnailUrl, other.mThumbnailUrl)
+                && mSaleability == other.mSaleability;
+    }
+
     public String getPreviewLink() {
-        return mPreviewLink;
+        if (mPreviewLink != null) {
+            return mPreviewLink;
+        }
+        return PREVIEW_LINK_BASE + mId + "&printsec=frontcover&source=gbs_api";
+    }
+
+    /**
+     * Return the SALEABILITY constant of a saleability value returned by the Google Books API.
+     */
+    static int parseSaleability(String saleability) {
+        if ("FOR_SALE".equals(saleability)) {
+            return SALEABILITY_FOR_SALE;
+        } else if ("FREE".equals(saleability)) {
+            return SALEABILITY_FREE;
+        } else if ("NOT_FOR_SALE".equals(saleability)) {
+            return SALEABILITY_NOT_FOR_SALE;
+        } else if ("FOR_PREORDER".equals(saleability)) {
+            return SALEABILITY_FOR_PREORDER;
+        }
+        return SALEABILITY_UNKNOWN;
+    }
+
+    /**
+     * Pack a date in the yyyy, yyyy-mm or yyyy-mm-dd format returned by the Google Books API
+     * into an int. Anything after the recognized part of the date is ignored.
+     */
+    static int packDate(String date) {
+        if (date == null) {
+            return NO_DATE;
+        }
+        int year = parseDigits(date, 0, 4);
+        if (year <= 0) {
+            return NO_DATE;
+        }
+        int month = date.length() > 4 && date.charAt(4) == '-' ? parseDigits(date, 5, 2) : -1;
+        if (month < 1 || month > 12) {
+            return year * 10000;
+        }
+        int day = date.length() > 7 && date.charAt(7) == '-' ? parseDigits(date, 8, 2) : -1;
+        if (day < 1 || day > 31) {
+            return year * 10000 + month * 100;
+        }
+        return year * 10000 + month * 100 + day;
+    }
+
+    static String formatDate(int packedDate) {
+        if (packedDate == NO_DATE) {
+            return null;
+        }
+        int year = packedDate / 10000;
+        int month = packedDate / 100 % 100;
+        int day = packedDate % 100;
+        StringBuilder date = new StringBuilder(10);
+        appendDigits(date, year, 4);
+        if (month > 0) {
+            appendDigits(date.append('-'), month, 2);
+            if (day > 0) {
+                appendDigits(date.append('-'), day, 2);
+            }
+        }
+        return date.toString();
+    }
+
+    // Returns the number written with the given count of digits at the index, or -1 if there is none
+    private static int parseDigits(String text, int index, int count) {
+        if (text.length() < index + count) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = index; i < index + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
     }
 
-    public Bitmap getBookImageBitmap() {
-        return mBookImageBitmap;
+    private static boolean equal(String first, String second) {
+        return first == null ? second == null : first.equals(second);
     }
 
-    public void setBookImageBitmap(Bitmap bookImageBitmap) {
-        this.mBookImageBitmap = bookImageBitmap;
+    private static void appendDigits(StringBuilder text, int value, int count) {
+        String digits = String.valueOf(value);
+        for (int i = digits.length(); i < count; i++) {
+            text.append('0');
+        }
+        text.append(digits);
     }
 
-}
\ No newline at end of file
+}
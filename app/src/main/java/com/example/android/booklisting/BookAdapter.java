@@ -1,53 +1,255 @@
 package com.example.android.booklisting;
 
-import android.app.Activity;
-import android.support.annotation.NonNull;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.TransitionDrawable;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-class BookAdapter extends ArrayAdapter<Book> {
+/**
+ * RecyclerView adapter of the list of books. Appended pages only bind the inserted rows,
+ * and a new result set replacing the shown one is diffed against it on a background thread,
+ * so rows of books present in both keep their views. Every row requests its thumbnail when
+ * it is bound and shows a placeholder in the thumbnail's color until the thumbnail fades in;
+ * the request is cancelled when the row is recycled. Must be used on the main thread.
+ */
+class BookAdapter extends RecyclerView.Adapter<BookAdapter.ViewHolder> {
+
+    /** Receives clicks on the rows of the list */
+    interface OnBookClickListener {
+        void onBookClick(Book book);
+    }
+
+    /** View type of the book rows, the only one in the list */
+    static final int VIEW_TYPE_BOOK = 0;
+
+    /** Number of scrapped rows kept for reuse, enough for a screen of rows flung out of view */
+    private static final int MAX_RECYCLED_VIEWS = 15;
 
     private static final int NO_BOOK_IMAGE_RES_ID = R.drawable.no_book_pic1;
 
-    BookAdapter(Activity context, List<Book> books) {
-        super(context, 0, books);
+    /** Payload of a row change which only needs the thumbnail to be set again */
+    private static final Object PAYLOAD_THUMBNAIL = new Object();
+
+    /** Duration of the fade from the placeholder to a thumbnail loaded after the row was bound */
+    private static final int THUMBNAIL_FADE_MILLIS = 150;
+
+    private final LayoutInflater mInflater;
+
+    private final Resources mResources;
+
+    /** Placeholder color of the thumbnails which have never been decoded */
+    private final int mDefaultPlaceholderColor;
+
+    private final ThumbnailLoader mThumbnailLoader;
+
+    private final OnBookClickListener mOnBookClickListener;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private List<Book> mBooks = new ArrayList<>();
+
+    /** Incremented for every new result set, so diffs computed for older ones are dropped */
+    private int mDiffGeneration;
+
+    /** Books appended while a diff is being computed, added once the diff has been applied */
+    private List<Book> mBooksAddedDuringDiff;
+
+    /** Books updated while a diff is being computed, replaced once the diff has been applied */
+    private List<Book> mBooksUpdatedDuringDiff;
+
+    BookAdapter(Context context, ThumbnailLoader thumbnailLoader, OnBookClickListener onBookClickListener) {
+        mInflater = LayoutInflater.from(context);
+        mResources = context.getResources();
+        mDefaultPlaceholderColor = mResources.getColor(R.color.colorThumbnailPlaceholder);
+        mThumbnailLoader = thumbnailLoader;
+        mOnBookClickListener = onBookClickListener;
+        setHasStableIds(true);
     }
 
-    @NonNull
-    @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        ViewHolder viewHolder;
+    /**
+     * Create a view pool for a list of books, keeping enough scrapped rows for a fling to reuse
+     * them instead of inflating new ones.
+     */
+    static RecyclerView.RecycledViewPool createViewPool() {
+        RecyclerView.RecycledViewPool viewPool = new RecyclerView.RecycledViewPool();
+        viewPool.setMaxRecycledViews(VIEW_TYPE_BOOK, MAX_RECYCLED_VIEWS);
+        return viewPool;
+    }
 
-        if (convertView == null) {
-            convertView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.book_list_item, parent, false);
+    /**
+     * Return a copy of the books of the list, including the ones not shown yet because
+     * the list is being diffed.
+     */
+    List<Book> getBooks() {
+        List<Book> books = new ArrayList<>(mBooks);
+        if (mBooksAddedDuringDiff != null) {
+            books.addAll(mBooksAddedDuringDiff);
+        }
+        return books;
+    }
 
-            viewHolder = new ViewHolder();
+    /**
+     * Append a page of books to the end of the list.
+     */
+    void addBooks(List<Book> books) {
+        if (books.isEmpty()) {
+            return;
+        }
+        if (mBooksAddedDuringDiff != null) {
+            // The list is about to be replaced, so the books go after the new result set
+            mBooksAddedDuringDiff.addAll(books);
+            return;
+        }
+        int positionStart = mBooks.size();
+        mBooks.addAll(books);
+        notifyItemRangeInserted(positionStart, books.size());
+    }
 
-            viewHolder.bookImage = (ImageView) convertView.findViewById(R.id.book_image);
-            viewHolder.bookTitle = (TextView) convertView.findViewById(R.id.book_title);
-            viewHolder.bookAuthor = (TextView) convertView.findViewById(R.id.book_author);
-            viewHolder.bookPublishDate = (TextView) convertView.findViewById(R.id.book_publish_date);
+    /**
+     * Replace the books of the list with the given ones. The changes are computed on
+     * a background thread and then applied to the list as moves, insertions and removals.
+     * Books appended or updated while the diff of an earlier call was still being computed
+     * are applied to the given ones instead, so they aren't lost when that diff is dropped.
+     */
+    void setBooks(List<Book> books) {
+        final int generation = ++mDiffGeneration;
+        final List<Book> oldBooks = mBooks;
+        final List<Book> newBooks = new ArrayList<>(books);
+        List<Book> pendingAddedBooks = mBooksAddedDuringDiff;
+        List<Book> pendingUpdatedBooks = mBooksUpdatedDuringDiff;
+        mBooksAddedDuringDiff = new ArrayList<>();
+        mBooksUpdatedDuringDiff = new ArrayList<>();
+        if (pendingAddedBooks != null && !pendingAddedBooks.isEmpty()) {
+            // Appended after the result set which the given one replaces, unless it has them already
+            Set<String> keys = new HashSet<>();
+            for (Book book : newBooks) {
+                keys.add(book.getKey());
+            }
+            for (Book book : pendingAddedBooks) {
+                if (keys.add(book.getKey())) {
+                    newBooks.add(book);
+                }
+            }
+        }
+        if (pendingUpdatedBooks != null) {
+            mBooksUpdatedDuringDiff.addAll(pendingUpdatedBooks);
+        }
 
-            convertView.setTag(viewHolder);
+        if (oldBooks.isEmpty() || newBooks.isEmpty()) {
+            // Nothing to diff, the rows are all inserted or all removed
+            applyBooks(newBooks, null);
+            return;
+        }
 
-        } else {
-            viewHolder = (ViewHolder) convertView.getTag();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diffResult =
+                        DiffUtil.calculateDiff(new BookDiffCallback(oldBooks, newBooks), true);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mDiffGeneration) {
+                            applyBooks(newBooks, diffResult);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Replace the books with the same keys as the given ones, binding their rows again.
+     */
+    void updateBooks(List<Book> books) {
+        if (books.isEmpty()) {
+            return;
+        }
+        if (mBooksUpdatedDuringDiff != null) {
+            // The books may be in the result set about to replace the list
+            mBooksUpdatedDuringDiff.addAll(books);
+            return;
         }
+        Map<String, Book> updatedBooks = new HashMap<>();
+        for (Book book : books) {
+            updatedBooks.put(book.getKey(), book);
+        }
+        for (int i = 0; i < mBooks.size(); i++) {
+            Book updatedBook = updatedBooks.get(mBooks.get(i).getKey());
+            if (updatedBook != null) {
+                mBooks.set(i, updatedBook);
+                notifyItemChanged(i);
+            }
+        }
+    }
 
-        final Book currentBook = getItem(position);
+    /**
+     * Update the rows showing the thumbnail with the given URL, without binding the rest of them again.
+     */
+    void onThumbnailLoaded(String thumbnailUrl) {
+        for (int i = 0; i < mBooks.size(); i++) {
+            if (TextUtils.equals(thumbnailUrl, mBooks.get(i).getThumbnailUrl())) {
+                notifyItemChanged(i, PAYLOAD_THUMBNAIL);
+            }
+        }
+    }
 
-        if (currentBook.getBookImageBitmap() == null) {
-            viewHolder.bookImage.setImageResource(NO_BOOK_IMAGE_RES_ID);
+    @Override
+    public int getItemCount() {
+        return mBooks.size();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return VIEW_TYPE_BOOK;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getStableId(mBooks.get(position));
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new ViewHolder(mInflater.inflate(R.layout.book_list_item, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder viewHolder, int position, List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_THUMBNAIL)) {
+            bindThumbnail(viewHolder, mBooks.get(position), true);
         } else {
-            viewHolder.bookImage.setImageBitmap(currentBook.getBookImageBitmap());
+            onBindViewHolder(viewHolder, position);
         }
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder viewHolder, int position) {
+        long bindStart = Metrics.startTimer();
+        Book currentBook = mBooks.get(position);
+
+        bindThumbnail(viewHolder, currentBook, false);
 
         viewHolder.bookTitle.setText(currentBook.getTitle());
 
@@ -58,15 +260,189 @@ class BookAdapter extends ArrayAdapter<Book> {
         }
 
         viewHolder.bookPublishDate.setText(currentBook.getPublishedDate());
+        Metrics.getInstance().recordSince(Metrics.Stage.BIND, bindStart);
+    }
+
+    @Override
+    public void onViewRecycled(ViewHolder viewHolder) {
+        // The row is off the screen, so its thumbnail is no longer needed
+        if (viewHolder.requestedThumbnailUrl != null) {
+            mThumbnailLoader.cancel(viewHolder.requestedThumbnailUrl);
+            viewHolder.requestedThumbnailUrl = null;
+        }
+        // Lets the bitmap be reused for decoding once it is evicted from the memory cache
+        viewHolder.bookImage.setImageDrawable(null);
+        setShownThumbnail(viewHolder, null);
+    }
+
+    private void applyBooks(List<Book> newBooks, DiffUtil.DiffResult diffResult) {
+        List<Book> booksAddedDuringDiff = mBooksAddedDuringDiff;
+        List<Book> booksUpdatedDuringDiff = mBooksUpdatedDuringDiff;
+        mBooksAddedDuringDiff = null;
+        mBooksUpdatedDuringDiff = null;
+
+        int oldSize = mBooks.size();
+        mBooks = newBooks;
+        if (diffResult != null) {
+            diffResult.dispatchUpdatesTo(this);
+        } else if (oldSize > 0) {
+            notifyItemRangeRemoved(0, oldSize);
+        } else {
+            notifyItemRangeInserted(0, newBooks.size());
+        }
+        addBooks(booksAddedDuringDiff);
+        updateBooks(booksUpdatedDuringDiff);
+    }
+
+    // Thumbnails are taken from the cache when the row is bound, so only covers of
+    // the recently shown rows are kept in memory. A thumbnail which isn't there is requested for
+    // the row, and a color is painted in its place until it arrives.
+    private void bindThumbnail(ViewHolder viewHolder, Book book, boolean fadeIn) {
+        String thumbnailUrl = book.getThumbnailUrl();
+        if (viewHolder.requestedThumbnailUrl != null
+                && !viewHolder.requestedThumbnailUrl.equals(thumbnailUrl)) {
+            // The row has been bound to another book
+            mThumbnailLoader.cancel(viewHolder.requestedThumbnailUrl);
+            viewHolder.requestedThumbnailUrl = null;
+        }
+
+        if (TextUtils.isEmpty(thumbnailUrl) || mThumbnailLoader.hasFailed(thumbnailUrl)) {
+            viewHolder.requestedThumbnailUrl = null;
+            viewHolder.bookImage.setImageResource(NO_BOOK_IMAGE_RES_ID);
+            setShownThumbnail(viewHolder, null);
+            return;
+        }
+
+        Bitmap bookImage = mThumbnailLoader.getAndAcquireShown(thumbnailUrl);
+        if (bookImage != null) {
+            // A delivered thumbnail has no request left to cancel
+            viewHolder.requestedThumbnailUrl = null;
+            if (bookImage == viewHolder.shownThumbnail) {
+                // Already recorded as shown by this row
+                mThumbnailLoader.releaseShown(bookImage);
+                return;
+            }
+            if (fadeIn) {
+                fadeInThumbnail(viewHolder.bookImage, bookImage);
+            } else {
+                viewHolder.bookImage.setImageBitmap(bookImage);
+            }
+            setShownThumbnail(viewHolder, bookImage);
+            return;
+        }
+
+        int placeholderColor = mThumbnailLoader.getPlaceholderColor(thumbnailUrl);
+        viewHolder.bookImage.setImageDrawable(
+                new ColorDrawable(placeholderColor != 0 ? placeholderColor : mDefaultPlaceholderColor));
+        setShownThumbnail(viewHolder, null);
+        if (viewHolder.requestedThumbnailUrl == null) {
+            viewHolder.requestedThumbnailUrl = thumbnailUrl;
+            mThumbnailLoader.load(thumbnailUrl);
+        }
+    }
+
+    // Replaces the bitmap shown by the row after the image view has stopped drawing the old one,
+    // which may then be reused by the cache to decode another thumbnail. The new bitmap, if any,
+    // must have been acquired for the row by getAndAcquireShown().
+    private void setShownThumbnail(ViewHolder viewHolder, Bitmap thumbnail) {
+        Bitmap oldThumbnail = viewHolder.shownThumbnail;
+        if (oldThumbnail == thumbnail) {
+            return;
+        }
+        viewHolder.shownThumbnail = thumbnail;
+        if (oldThumbnail != null) {
+            mThumbnailLoader.releaseShown(oldThumbnail);
+        }
+    }
+
+    private void fadeInThumbnail(ImageView imageView, Bitmap thumbnail) {
+        Drawable placeholder = imageView.getDrawable();
+        // Only a color is faded out, as a released bitmap may be decoded into during the fade
+        if (!(placeholder instanceof ColorDrawable)) {
+            imageView.setImageBitmap(thumbnail);
+            return;
+        }
+        TransitionDrawable transition = new TransitionDrawable(new Drawable[]{
+                placeholder, new BitmapDrawable(mResources, thumbnail)});
+        transition.setCrossFadeEnabled(true);
+        imageView.setImageDrawable(transition);
+        transition.startTransition(THUMBNAIL_FADE_MILLIS);
+    }
+
+    // 64-bit FNV-1a hash of the key, which stays the same for the book across result sets
+    private static long getStableId(Book book) {
+        String key = book.getKey();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
 
-        return convertView;
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final ImageView bookImage;
+        final TextView bookTitle;
+        final TextView bookAuthor;
+        final TextView bookPublishDate;
+
+        /** URL of the thumbnail requested for the row and not delivered yet, or null */
+        String requestedThumbnailUrl;
+
+        /** Cached bitmap shown by the row, or null if it shows a placeholder */
+        Bitmap shownThumbnail;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            bookImage = (ImageView) itemView.findViewById(R.id.book_image);
+            bookTitle = (TextView) itemView.findViewById(R.id.book_title);
+            bookAuthor = (TextView) itemView.findViewById(R.id.book_author);
+            bookPublishDate = (TextView) itemView.findViewById(R.id.book_publish_date);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                mOnBookClickListener.onBookClick(mBooks.get(position));
+            }
+        }
     }
 
-    private static class ViewHolder {
-        ImageView bookImage;
-        TextView bookTitle;
-        TextView bookAuthor;
-        TextView bookPublishDate;
+    /**
+     * Compares the old and the new result sets by the book keys and the shown fields.
+     */
+    private static final class BookDiffCallback extends DiffUtil.Callback {
+
+        private final List<Book> mOldBooks;
+
+        private final List<Book> mNewBooks;
+
+        BookDiffCallback(List<Book> oldBooks, List<Book> newBooks) {
+            mOldBooks = oldBooks;
+            mNewBooks = newBooks;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldBooks.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewBooks.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldBooks.get(oldItemPosition).getKey().equals(mNewBooks.get(newItemPosition).getKey());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldBooks.get(oldItemPosition).hasSameContent(mNewBooks.get(newItemPosition));
+        }
     }
 
-}
\ No newline at end of file
+}
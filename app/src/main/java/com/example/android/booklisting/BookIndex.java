@@ -0,0 +1,400 @@
+package com.example.android.booklisting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index of the books loaded for a query, so they can be filtered, sorted and counted
+ * by author, publication year and saleability without requesting them again from the server.
+ * Books keep the position of the order in which they were added, and every indexed value maps
+ * to the set of positions of its books, so a query is a few bit set intersections followed by
+ * a walk over the matching positions in the requested order.
+ * It uses no Android classes, so it can also be run and measured on a plain JVM.
+ */
+final class BookIndex {
+
+    /** Value of {@link Query#year} and {@link Query#saleability} matching every book */
+    static final int ANY = -1;
+
+    /** Year of the books without a publication date */
+    static final int NO_YEAR = 0;
+
+    /** Books in the order in which they were added, i.e. the order of the server */
+    private final List<Book> mBooks = new ArrayList<>();
+
+    /** Positions of the books by key */
+    private final HashMap<String, Integer> mPositions = new HashMap<>();
+
+    private final HashMap<String, BitSet> mByAuthor = new HashMap<>();
+
+    private final HashMap<Integer, BitSet> mByYear = new HashMap<>();
+
+    private final BitSet[] mBySaleability = new BitSet[Book.SALEABILITY_COUNT];
+
+    /** Positions of the books, the newest first, or null until it is needed again */
+    private int[] mNewestFirst;
+
+    /** Approximate size of the entries of a book in the list, the map of positions and the bit sets */
+    private static final int ENTRY_BYTES = 64;
+
+    /** Approximate number of bytes of memory used by the books and their entries */
+    private long mRetainedBytes;
+
+    BookIndex() {
+        for (int i = 0; i < mBySaleability.length; i++) {
+            mBySaleability[i] = new BitSet();
+        }
+    }
+
+    /**
+     * Books to show, chosen by author, year and saleability, and their order.
+     */
+    static final class Query {
+
+        /** Query of all the books in the order of the server */
+        static final Query ALL = new Query(null, ANY, ANY, false);
+
+        /** Name of one of the authors of the books, or null for books of any author */
+        final String author;
+
+        /** Publication year of the books, {@link #NO_YEAR} or {@link #ANY} */
+        final int year;
+
+        /** One of the SALEABILITY constants of {@link Book}, or {@link #ANY} */
+        final int saleability;
+
+        /** True to order the books by publication date, the most recent first */
+        final boolean newestFirst;
+
+        Query(String author, int year, int saleability, boolean newestFirst) {
+            this.author = author;
+            this.year = year;
+            this.saleability = saleability;
+            this.newestFirst = newestFirst;
+        }
+
+        /**
+         * Return true if the query shows the books in another order or not all of them.
+         */
+        boolean isRefined() {
+            return author != null || year != ANY || saleability != ANY || newestFirst;
+        }
+    }
+
+    /**
+     * Number of books of a value of a facet.
+     */
+    static final class Count<T> {
+
+        final T value;
+
+        final int count;
+
+        Count(T value, int count) {
+            this.value = value;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Values of the authors, years and saleability of the books matching a query, with
+     * their numbers of books.
+     */
+    static final class Facets {
+
+        /** Authors, the most frequent first */
+        final List<Count<String>> authors;
+
+        /** Publication years, the most recent first, without {@link #NO_YEAR} */
+        final List<Count<Integer>> years;
+
+        /** Number of books by SALEABILITY constant */
+        final int[] saleabilityCounts;
+
+        Facets(List<Count<String>> authors, List<Count<Integer>> years, int[] saleabilityCounts) {
+            this.authors = authors;
+            this.years = years;
+            this.saleabilityCounts = saleabilityCounts;
+        }
+    }
+
+    /**
+     * Add books to the index after those added before. Books already in the index replace
+     * their earlier records, keeping their position.
+     */
+    void add(List<Book> books) {
+        for (Book book : books) {
+            Integer position = mPositions.get(book.getKey());
+            if (position != null) {
+                replace(position, book);
+            } else {
+                position = mBooks.size();
+                mBooks.add(book);
+                mPositions.put(book.getKey(), position);
+                index(position, book);
+                mRetainedBytes += book.getRetainedBytes() + ENTRY_BYTES;
+            }
+        }
+        mNewestFirst = null;
+    }
+
+    /**
+     * Replace the records of books in the index, e.g. returned again with changed content.
+     * Books which aren't in the index are ignored.
+     */
+    void update(List<Book> books) {
+        for (Book book : books) {
+            Integer position = mPositions.get(book.getKey());
+            if (position != null) {
+                replace(position, book);
+            }
+        }
+        mNewestFirst = null;
+    }
+
+    void clear() {
+        mBooks.clear();
+        mPositions.clear();
+        mByAuthor.clear();
+        mByYear.clear();
+        for (BitSet positions : mBySaleability) {
+            positions.clear();
+        }
+        mNewestFirst = null;
+        mRetainedBytes = 0;
+    }
+
+    int size() {
+        return mBooks.size();
+    }
+
+    /**
+     * Return the approximate number of bytes of memory used by the indexed books.
+     */
+    long getRetainedBytes() {
+        return mRetainedBytes;
+    }
+
+    /**
+     * Return a copy of all the books in the order in which they were added.
+     */
+    List<Book> getBooks() {
+        return new ArrayList<>(mBooks);
+    }
+
+    /**
+     * Return the books matching the query in its order.
+     */
+    List<Book> query(Query query) {
+        List<Book> books = new ArrayList<>();
+        BitSet matches = match(query);
+        if (matches == null) {
+            for (int position : order(query)) {
+                books.add(mBooks.get(position));
+            }
+        } else if (query.newestFirst) {
+            for (int position : getNewestFirst()) {
+                if (matches.get(position)) {
+                    books.add(mBooks.get(position));
+                }
+            }
+        } else {
+            for (int position = matches.nextSetBit(0); position >= 0;
+                 position = matches.nextSetBit(position + 1)) {
+                books.add(mBooks.get(position));
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Return the books matching the query which were added at or after the given position,
+     * in the order in which they were added, e.g. to append the matching books of a new page.
+     */
+    List<Book> query(Query query, int fromPosition) {
+        List<Book> books = new ArrayList<>();
+        BitSet matches = match(query);
+        if (matches == null) {
+            books.addAll(mBooks.subList(Math.min(fromPosition, mBooks.size()), mBooks.size()));
+        } else {
+            for (int position = matches.nextSetBit(fromPosition); position >= 0;
+                 position = matches.nextSetBit(position + 1)) {
+                books.add(mBooks.get(position));
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Return the authors, years and saleability of the books matching the query.
+     */
+    Facets facets(Query query) {
+        BitSet matches = match(query);
+        if (matches == null) {
+            matches = new BitSet();
+            matches.set(0, mBooks.size());
+        }
+        HashMap<String, int[]> authorCounts = new HashMap<>();
+        HashMap<Integer, int[]> yearCounts = new HashMap<>();
+        int[] saleabilityCounts = new int[Book.SALEABILITY_COUNT];
+        for (int position = matches.nextSetBit(0); position >= 0;
+             position = matches.nextSetBit(position + 1)) {
+            Book book = mBooks.get(position);
+            Authors authors = book.getAuthors();
+            for (int i = 0; authors != null && i < authors.size(); i++) {
+                increment(authorCounts, authors.get(i));
+            }
+            int year = getYear(book);
+            if (year != NO_YEAR) {
+                increment(yearCounts, year);
+            }
+            saleabilityCounts[book.getSaleability()]++;
+        }
+
+        List<Count<String>> authors = toCounts(authorCounts);
+        Collections.sort(authors, new Comparator<Count<String>>() {
+            @Override
+            public int compare(Count<String> first, Count<String> second) {
+                return first.count != second.count
+                        ? (first.count > second.count ? -1 : 1)
+                        : first.value.compareTo(second.value);
+            }
+        });
+        List<Count<Integer>> years = toCounts(yearCounts);
+        Collections.sort(years, new Comparator<Count<Integer>>() {
+            @Override
+            public int compare(Count<Integer> first, Count<Integer> second) {
+                return second.value.compareTo(first.value);
+            }
+        });
+        return new Facets(authors, years, saleabilityCounts);
+    }
+
+    /**
+     * Return the publication year of the book, or {@link #NO_YEAR}.
+     */
+    static int getYear(Book book) {
+        return book.getPackedPublishedDate() / 10000;
+    }
+
+    // Returns the positions of the books matching the filters of the query, or null if it has none
+    private BitSet match(Query query) {
+        BitSet matches = null;
+        if (query.author != null) {
+            matches = intersect(matches, mByAuthor.get(query.author));
+        }
+        if (query.year != ANY) {
+            matches = intersect(matches, mByYear.get(query.year));
+        }
+        if (query.saleability != ANY) {
+            matches = intersect(matches, mBySaleability[query.saleability]);
+        }
+        return matches;
+    }
+
+    // The index sets are never returned, so they aren't changed by the intersections
+    private static BitSet intersect(BitSet matches, BitSet positions) {
+        if (positions == null) {
+            return new BitSet();
+        }
+        if (matches == null) {
+            return (BitSet) positions.clone();
+        }
+        matches.and(positions);
+        return matches;
+    }
+
+    private int[] order(Query query) {
+        if (query.newestFirst) {
+            return getNewestFirst();
+        }
+        int[] positions = new int[mBooks.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        return positions;
+    }
+
+    // Sorted once after the books have changed. The sort is stable, so books of the same date
+    // and those without a date keep the order of the server.
+    private int[] getNewestFirst() {
+        if (mNewestFirst == null) {
+            Integer[] positions = new Integer[mBooks.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = i;
+            }
+            Arrays.sort(positions, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer first, Integer second) {
+                    int firstDate = mBooks.get(first).getPackedPublishedDate();
+                    int secondDate = mBooks.get(second).getPackedPublishedDate();
+                    return firstDate > secondDate ? -1 : (firstDate == secondDate ? 0 : 1);
+                }
+            });
+            mNewestFirst = new int[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                mNewestFirst[i] = positions[i];
+            }
+        }
+        return mNewestFirst;
+    }
+
+    private void replace(int position, Book book) {
+        Book oldBook = mBooks.get(position);
+        unindex(position, oldBook);
+        mBooks.set(position, book);
+        index(position, book);
+        mRetainedBytes += book.getRetainedBytes() - oldBook.getRetainedBytes();
+    }
+
+    private void index(int position, Book book) {
+        Authors authors = book.getAuthors();
+        for (int i = 0; authors != null && i < authors.size(); i++) {
+            getPositions(mByAuthor, authors.get(i)).set(position);
+        }
+        getPositions(mByYear, getYear(book)).set(position);
+        mBySaleability[book.getSaleability()].set(position);
+    }
+
+    private void unindex(int position, Book book) {
+        Authors authors = book.getAuthors();
+        for (int i = 0; authors != null && i < authors.size(); i++) {
+            getPositions(mByAuthor, authors.get(i)).clear(position);
+        }
+        getPositions(mByYear, getYear(book)).clear(position);
+        mBySaleability[book.getSaleability()].clear(position);
+    }
+
+    private static <K> BitSet getPositions(HashMap<K, BitSet> index, K value) {
+        BitSet positions = index.get(value);
+        if (positions == null) {
+            positions = new BitSet();
+            index.put(value, positions);
+        }
+        return positions;
+    }
+
+    private static <K> void increment(HashMap<K, int[]> counts, K value) {
+        int[] count = counts.get(value);
+        if (count == null) {
+            counts.put(value, new int[]{1});
+        } else {
+            count[0]++;
+        }
+    }
+
+    private static <K> List<Count<K>> toCounts(HashMap<K, int[]> counts) {
+        List<Count<K>> list = new ArrayList<>(counts.size());
+        for (Map.Entry<K, int[]> entry : counts.entrySet()) {
+            list.add(new Count<>(entry.getKey(), entry.getValue()[0]));
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.example.android.booklisting;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser of Google Books API volume list responses.
+ * It reads the few fields of {@code items[].volumeInfo} and {@code items[].saleInfo} used by
+ * {@link Book} directly from the response stream and skips everything else without building it in memory.
+ */
+final class BookJsonParser {
+
+    /** Receives books one at a time as soon as they are parsed */
+    interface BookHandler {
+        void onBook(Book book);
+    }
+
+    private static final String FIELD_TOTAL_ITEMS = "totalItems";
+    private static final String FIELD_ITEMS = "items";
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_VOLUME_INFO = "volumeInfo";
+    private static final String FIELD_TITLE = "title";
+    private static final String FIELD_AUTHORS = "authors";
+    private static final String FIELD_PUBLISHED_DATE = "publishedDate";
+    private static final String FIELD_PREVIEW_LINK = "previewLink";
+    private static final String FIELD_IMAGE_LINKS = "imageLinks";
+    private static final String FIELD_THUMBNAIL = "thumbnail";
+    private static final String FIELD_SALE_INFO = "saleInfo";
+    private static final String FIELD_SALEABILITY = "saleability";
+
+    /**
+     * Partial response selector of the volume list fields read by this parser, for the {@code fields}
+     * request parameter. The server leaves out everything else, so responses are several times smaller.
+     */
+    static final String FIELDS = FIELD_TOTAL_ITEMS + "," + FIELD_ITEMS + "(" + FIELD_ID + ","
+            + FIELD_VOLUME_INFO + "(" + FIELD_TITLE + "," + FIELD_AUTHORS + "," + FIELD_PUBLISHED_DATE
+            + "," + FIELD_PREVIEW_LINK + "," + FIELD_IMAGE_LINKS + "/" + FIELD_THUMBNAIL + "),"
+            + FIELD_SALE_INFO + "/" + FIELD_SALEABILITY + ")";
+
+    private BookJsonParser() {
+    }
+
+    /**
+     * Parse the JSON response read from the given stream, passing every book to the handler.
+     * Books without a title, or without both a volume ID and a preview link, are skipped.
+     *
+     * @return the total number of items matching the request, or {@link BookPage#UNKNOWN_TOTAL_ITEMS}
+     * @throws IOException if the stream can't be read or doesn't contain a valid response
+     */
+    static int parse(InputStream in, BookHandler handler) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, Charset.forName("UTF-8")));
+        int totalItems = BookPage.UNKNOWN_TOTAL_ITEMS;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (FIELD_ITEMS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    readItems(reader, handler);
+                } else if (FIELD_TOTAL_ITEMS.equals(name) && reader.peek() == JsonToken.NUMBER) {
+                    totalItems = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return totalItems;
+        } catch (IllegalStateException e) {
+            // Thrown by the reader when the JSON structure is not the expected one
+            throw new IOException("Unexpected book JSON structure", e);
+        }
+    }
+
+    /**
+     * Parse the JSON response of a single volume lookup read from the given stream.
+     *
+     * @return the book, or null if it has no title or preview link
+     * @throws IOException if the stream can't be read or doesn't contain a valid response
+     */
+    static Book parseVolume(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, Charset.forName("UTF-8")));
+        try {
+            return readItem(reader);
+        } catch (IllegalStateException e) {
+            // Thrown by the reader when the JSON structure is not the expected one
+            throw new IOException("Unexpected volume JSON structure", e);
+        }
+    }
+
+    private static void readItems(JsonReader reader, BookHandler handler) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Book book = readItem(reader);
+            if (book != null) {
+                handler.onBook(book);
+            }
+        }
+        reader.endArray();
+    }
+
+    private static Book readItem(JsonReader reader) throws IOException {
+        String id = null;
+        VolumeInfo volumeInfo = null;
+        int saleability = Book.SALEABILITY_UNKNOWN;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (FIELD_ID.equals(name) && reader.peek() == JsonToken.STRING) {
+                id = reader.nextString();
+            } else if (FIELD_VOLUME_INFO.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                volumeInfo = readVolumeInfo(reader);
+            } else if (FIELD_SALE_INFO.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                saleability = readSaleability(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // The preview link of a book with a volume ID can be built from the ID
+        if (volumeInfo == null || volumeInfo.title == null || (id == null && volumeInfo.previewLink == null)) {
+            return null;
+        }
+        return new Book(id, volumeInfo.thumbnailUrl, volumeInfo.title, volumeInfo.authors,
+                Book.packDate(volumeInfo.publishedDate), volumeInfo.previewLink, saleability);
+    }
+
+    private static VolumeInfo readVolumeInfo(JsonReader reader) throws IOException {
+        VolumeInfo volumeInfo = new VolumeInfo();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (FIELD_TITLE.equals(name)) {
+                volumeInfo.title = reader.nextString();
+            } else if (FIELD_AUTHORS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                volumeInfo.authors = readAuthors(reader);
+            } else if (FIELD_PUBLISHED_DATE.equals(name)) {
+                volumeInfo.publishedDate = reader.nextString();
+            } else if (FIELD_PREVIEW_LINK.equals(name)) {
+                volumeInfo.previewLink = reader.nextString();
+            } else if (FIELD_IMAGE_LINKS.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                volumeInfo.thumbnailUrl = readThumbnailUrl(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return volumeInfo;
+    }
+
+    private static Authors readAuthors(JsonReader reader) throws IOException {
+        List<String> names = new ArrayList<>(4);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            // Null names are dropped
+            if (reader.peek() == JsonToken.STRING) {
+                names.add(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
+        return Authors.of(names);
+    }
+
+    private static String readThumbnailUrl(JsonReader reader) throws IOException {
+        String thumbnailUrl = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (FIELD_THUMBNAIL.equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                thumbnailUrl = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return thumbnailUrl;
+    }
+
+    private static int readSaleability(JsonReader reader) throws IOException {
+        int saleability = Book.SALEABILITY_UNKNOWN;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (FIELD_SALEABILITY.equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                saleability = Book.parseSaleability(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return saleability;
+    }
+
+    /**
+     * Fields of the volumeInfo object collected until the whole item has been read.
+     */
+    private static final class VolumeInfo {
+        String title;
+        Authors authors;
+        String publishedDate;
+        String previewLink;
+        String thumbnailUrl;
+    }
+
+}
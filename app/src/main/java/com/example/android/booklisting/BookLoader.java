@@ -0,0 +1,260 @@
+package com.example.android.booklisting;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads pages of books in background, replacing one-off AsyncTasks.
+ * Requests are run by priority, and every request belongs to a generation: starting a new
+ * generation (e.g. for a new search query) cancels all requests of the previous ones,
+ * and their results are never delivered even if they were already running.
+ * Identical requests of the same generation are merged into one while it is in progress.
+ */
+final class BookLoader {
+
+    /**
+     * Receives loaded pages of books on the main thread, only if the request is still current.
+     * The page is null if the books couldn't be loaded.
+     */
+    interface Callback {
+        void onBooksLoaded(BookPage page);
+    }
+
+    /** Priority of the search in the local book store, which is shown before the server responds */
+    static final int PRIORITY_LOCAL = 0;
+
+    /** Priority of the first page of a new search query */
+    static final int PRIORITY_QUERY = 1;
+
+    /** Priority of the next page requested because the user has scrolled to the end of the list */
+    static final int PRIORITY_PAGE = 2;
+
+    /** Priority of pages loaded ahead of time, before the user needs them */
+    static final int PRIORITY_PREFETCH = 3;
+
+    /** Maximum number of books returned by a search in the local book store */
+    private static final int LOCAL_SEARCH_LIMIT = 40;
+
+    private static final String LOG_TAG = BookLoader.class.getSimpleName();
+
+    /** Number of requests loaded at the same time */
+    private static final int WORKER_COUNT = 2;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final RequestBroker mRequestBroker;
+
+    private final BookStore mBookStore;
+
+    /** Requests queued or running, to be cancelled when a new generation starts */
+    private final List<LoadTask> mTasks = new ArrayList<>();
+
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    /** Sequence number of the requests keeping the order of requests with the same priority */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    BookLoader(RequestBroker requestBroker, BookStore bookStore) {
+        mRequestBroker = requestBroker;
+        mBookStore = bookStore;
+        mExecutor = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "BookLoader #" + mCount.getAndIncrement());
+            }
+        });
+    }
+
+    /**
+     * Cancel all requests of the current generation and start a new one.
+     * Must be called on the main thread.
+     */
+    void startNewGeneration() {
+        mGeneration.incrementAndGet();
+        // Cancelling a task runs its done() on this thread, which removes it from mTasks,
+        // so the tasks are cancelled from a copy
+        List<LoadTask> tasks;
+        synchronized (mTasks) {
+            tasks = new ArrayList<>(mTasks);
+            mTasks.clear();
+        }
+        for (LoadTask task : tasks) {
+            task.cancel(true);
+            mExecutor.remove(task);
+        }
+    }
+
+    /**
+     * Queue loading of the books from the given request URL in the current generation.
+     * If the same URL is already being loaded, the callback is attached to that request instead.
+     * Must be called on the main thread.
+     */
+    void load(final String requestUrl, int priority, Callback callback) {
+        submit(requestUrl, new Callable<BookPage>() {
+            @Override
+            public BookPage call() throws Exception {
+                // Waits for the request of another loader if the same page is already being fetched
+                Future<BookPage> request = mRequestBroker.fetchPage(requestUrl);
+                BookPage page;
+                try {
+                    page = request.get();
+                } catch (InterruptedException e) {
+                    // This load has been cancelled, so the page is fetched only if someone else waits for it
+                    request.cancel(true);
+                    throw e;
+                }
+                // Every fetched book is kept locally to answer later searches without network
+                if (page != null && !page.getBooks().isEmpty()) {
+                    mBookStore.putBooks(page.getBooks());
+                }
+                return page;
+            }
+        }, priority, callback);
+    }
+
+    /**
+     * Queue a search of the given query in the local book store in the current generation.
+     * Must be called on the main thread.
+     */
+    void loadLocal(final String query, Callback callback) {
+        submit("local:" + query, new Callable<BookPage>() {
+            @Override
+            public BookPage call() {
+                List<Book> books = mBookStore.search(query, LOCAL_SEARCH_LIMIT);
+                return new BookPage(books, BookPage.UNKNOWN_TOTAL_ITEMS);
+            }
+        }, PRIORITY_LOCAL, callback);
+    }
+
+    private void submit(String key, Callable<BookPage> callable, int priority, Callback callback) {
+        LoadTask task;
+        synchronized (mTasks) {
+            for (LoadTask existingTask : mTasks) {
+                if (existingTask.mKey.equals(key) && isCurrent(existingTask)) {
+                    existingTask.mCallbacks.add(callback);
+                    return;
+                }
+            }
+            task = new LoadTask(key, callable, priority, mGeneration.get(), callback);
+            mTasks.add(task);
+        }
+        mExecutor.execute(task);
+    }
+
+    /**
+     * Cancel all requests and stop the worker threads. The loader can't be used afterwards.
+     */
+    void shutdown() {
+        startNewGeneration();
+        mExecutor.shutdownNow();
+        mMainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private boolean isCurrent(LoadTask task) {
+        return !task.isCancelled() && task.mTaskGeneration == mGeneration.get();
+    }
+
+    /**
+     * Request ordered in the executor queue by priority, then by the time it was queued.
+     */
+    private final class LoadTask extends FutureTask<BookPage> implements Comparable<LoadTask> {
+
+        private final int mPriority;
+
+        private final long mSequenceNumber;
+
+        private final int mTaskGeneration;
+
+        /** Request URL, or another string identifying identical requests */
+        private final String mKey;
+
+        /** Callbacks of all requests merged into this one, guarded by the lock on mTasks */
+        private final List<Callback> mCallbacks = new ArrayList<>();
+
+        private final long mQueuedAt = Metrics.startTimer();
+
+        LoadTask(String key, Callable<BookPage> callable, int priority, int generation,
+                 Callback callback) {
+            super(callable);
+            mPriority = priority;
+            mSequenceNumber = mSequence.getAndIncrement();
+            mTaskGeneration = generation;
+            mKey = key;
+            mCallbacks.add(callback);
+        }
+
+        @Override
+        public void run() {
+            Metrics.getInstance().recordSince(Metrics.Stage.PAGE_QUEUE, mQueuedAt);
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            final List<Callback> callbacks;
+            synchronized (mTasks) {
+                mTasks.remove(this);
+                callbacks = new ArrayList<>(mCallbacks);
+            }
+            if (!isCurrent(this)) {
+                return;
+            }
+            BookPage loadedPage = null;
+            try {
+                loadedPage = get();
+            } catch (InterruptedException | ExecutionException e) {
+                // Delivered as a failed request, so the caller doesn't wait for it forever
+                Log.e(LOG_TAG, "Problem loading books", e);
+            }
+            final BookPage page = loadedPage;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // The generation may have changed while the result was waiting for the main thread
+                    if (isCurrent(LoadTask.this)) {
+                        Metrics.getInstance().recordSince(Metrics.Stage.PAGE_LOAD, mQueuedAt);
+                        for (Callback callback : callbacks) {
+                            callback.onBooksLoaded(page);
+                        }
+                    }
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(LoadTask other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequenceNumber < other.mSequenceNumber ? -1
+                    : (mSequenceNumber == other.mSequenceNumber ? 0 : 1);
+        }
+    }
+
+}
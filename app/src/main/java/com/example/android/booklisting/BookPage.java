@@ -0,0 +1,33 @@
+package com.example.android.booklisting;
+
+import java.util.List;
+
+/**
+ * One page of books returned by the Google Books API for a search request.
+ */
+public class BookPage {
+
+    /** Value of the total number of items when the response doesn't contain it */
+    public static final int UNKNOWN_TOTAL_ITEMS = -1;
+
+    private final List<Book> mBooks;
+
+    private final int mTotalItems;
+
+    public BookPage(List<Book> books, int totalItems) {
+        this.mBooks = books;
+        this.mTotalItems = totalItems;
+    }
+
+    public List<Book> getBooks() {
+        return mBooks;
+    }
+
+    /**
+     * Return the number of books matching the request on the server, as reported in the response.
+     */
+    public int getTotalItems() {
+        return mTotalItems;
+    }
+
+}
@@ -0,0 +1,209 @@
+package com.example.android.booklisting;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local SQLite store of all books fetched from the server, with a full-text index over
+ * their titles and authors, so searches can be answered immediately and without network.
+ * Methods of this class access the database and must not be called on the main thread.
+ */
+final class BookStore extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "books.db";
+
+    private static final int DATABASE_VERSION = 3;
+
+    /** Books not fetched again for this long are deleted */
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    /** Maximum number of books kept, the least recently fetched ones are deleted first */
+    private static final int MAX_BOOKS = 5000;
+
+    private static final String TABLE_BOOKS = "books";
+    private static final String TABLE_BOOKS_FTS = "books_fts";
+
+    private static final String COLUMN_ROW_ID = "_id";
+    private static final String COLUMN_VOLUME_ID = "volume_id";
+    private static final String COLUMN_TITLE = "title";
+    private static final String COLUMN_AUTHOR = "author";
+    private static final String COLUMN_PUBLISHED_DATE = "published_date";
+    private static final String COLUMN_PREVIEW_LINK = "preview_link";
+    private static final String COLUMN_THUMBNAIL_URL = "thumbnail_url";
+    private static final String COLUMN_SALEABILITY = "saleability";
+    private static final String COLUMN_FETCHED_AT = "fetched_at";
+
+    private static final String[] BOOK_COLUMNS = {
+            COLUMN_VOLUME_ID, COLUMN_THUMBNAIL_URL, COLUMN_TITLE, COLUMN_AUTHOR,
+            COLUMN_PUBLISHED_DATE, COLUMN_PREVIEW_LINK, COLUMN_SALEABILITY
+    };
+
+    private static BookStore sInstance;
+
+    static synchronized BookStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private BookStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_BOOKS + " ("
+                + COLUMN_ROW_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_VOLUME_ID + " TEXT NOT NULL UNIQUE, "
+                + COLUMN_TITLE + " TEXT NOT NULL, "
+                + COLUMN_AUTHOR + " TEXT, "
+                + COLUMN_PUBLISHED_DATE + " TEXT, "
+                + COLUMN_PREVIEW_LINK + " TEXT NOT NULL, "
+                + COLUMN_THUMBNAIL_URL + " TEXT, "
+                + COLUMN_SALEABILITY + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_FETCHED_AT + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX books_fetched_at ON " + TABLE_BOOKS + " (" + COLUMN_FETCHED_AT + ")");
+        // FTS3 is available on all supported Android versions. Its docid is the row ID of the book.
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_BOOKS_FTS + " USING fts3("
+                + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The store only holds copies of server data, so it can simply be rebuilt
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKS_FTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKS);
+        onCreate(db);
+    }
+
+    /**
+     * Insert the books or update the stored ones with the same volume ID.
+     * Books without a volume ID can't be identified and are not stored.
+     */
+    void putBooks(List<Book> books) {
+        SQLiteDatabase db = getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            for (Book book : books) {
+                if (book.getId() == null) {
+                    continue;
+                }
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_VOLUME_ID, book.getId());
+                values.put(COLUMN_TITLE, book.getTitle());
+                // Stored in a form which keeps names containing commas, and indexed as shown
+                values.put(COLUMN_AUTHOR, book.getAuthors() == null ? null : book.getAuthors().toStoredString());
+                values.put(COLUMN_PUBLISHED_DATE, book.getPublishedDate());
+                values.put(COLUMN_PREVIEW_LINK, book.getPreviewLink());
+                values.put(COLUMN_THUMBNAIL_URL, book.getThumbnailUrl());
+                values.put(COLUMN_SALEABILITY, book.getSaleability());
+                values.put(COLUMN_FETCHED_AT, now);
+
+                long rowId = findRowId(db, book.getId());
+                if (rowId < 0) {
+                    rowId = db.insert(TABLE_BOOKS, null, values);
+                } else {
+                    db.update(TABLE_BOOKS, values, COLUMN_ROW_ID + " = ?",
+                            new String[]{String.valueOf(rowId)});
+                }
+                if (rowId < 0) {
+                    continue;
+                }
+
+                ContentValues ftsValues = new ContentValues();
+                ftsValues.put("docid", rowId);
+                ftsValues.put(COLUMN_TITLE, book.getTitle());
+                ftsValues.put(COLUMN_AUTHOR, book.getAuthor());
+                db.replace(TABLE_BOOKS_FTS, null, ftsValues);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Return up to the given number of stored books whose title or authors contain words starting
+     * with every word of the query, the most recently fetched first.
+     */
+    List<Book> search(String query, int limit) {
+        List<Book> books = new ArrayList<>();
+        String matchQuery = buildMatchQuery(query);
+        if (matchQuery == null) {
+            return books;
+        }
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT b." + TextUtils.join(", b.", BOOK_COLUMNS)
+                        + " FROM " + TABLE_BOOKS + " b JOIN " + TABLE_BOOKS_FTS + " f"
+                        + " ON f.docid = b." + COLUMN_ROW_ID
+                        + " WHERE " + TABLE_BOOKS_FTS + " MATCH ?"
+                        + " ORDER BY b." + COLUMN_FETCHED_AT + " DESC LIMIT " + limit,
+                new String[]{matchQuery});
+        try {
+            while (cursor.moveToNext()) {
+                books.add(new Book(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                        Authors.fromStoredString(cursor.getString(3)), Book.packDate(cursor.getString(4)),
+                        cursor.getString(5), cursor.getInt(6)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return books;
+    }
+
+    /**
+     * Delete the books which haven't been fetched for too long, then the least recently fetched
+     * ones if there are still too many of them.
+     */
+    void evict() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_BOOKS, COLUMN_FETCHED_AT + " < ?",
+                    new String[]{String.valueOf(System.currentTimeMillis() - MAX_AGE_MILLIS)});
+            db.execSQL("DELETE FROM " + TABLE_BOOKS + " WHERE " + COLUMN_ROW_ID + " IN ("
+                    + "SELECT " + COLUMN_ROW_ID + " FROM " + TABLE_BOOKS
+                    + " ORDER BY " + COLUMN_FETCHED_AT + " DESC LIMIT -1 OFFSET " + MAX_BOOKS + ")");
+            db.execSQL("DELETE FROM " + TABLE_BOOKS_FTS + " WHERE docid NOT IN ("
+                    + "SELECT " + COLUMN_ROW_ID + " FROM " + TABLE_BOOKS + ")");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static long findRowId(SQLiteDatabase db, String volumeId) {
+        Cursor cursor = db.query(TABLE_BOOKS, new String[]{COLUMN_ROW_ID},
+                COLUMN_VOLUME_ID + " = ?", new String[]{volumeId}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Turns the words of the query into FTS prefix terms, e.g. "harry pot" into "harry* pot*"
+    private static String buildMatchQuery(String query) {
+        StringBuilder matchQuery = new StringBuilder();
+        for (String word : query.toLowerCase(Locale.getDefault()).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                if (matchQuery.length() > 0) {
+                    matchQuery.append(' ');
+                }
+                matchQuery.append(word).append('*');
+            }
+        }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
+
+}
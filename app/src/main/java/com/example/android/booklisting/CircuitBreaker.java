@@ -0,0 +1,96 @@
+package com.example.android.booklisting;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops requests to a service which keeps failing. After {@link #FAILURE_THRESHOLD} failures
+ * in a row the circuit opens and requests fail immediately, without a connection, for
+ * {@link #OPEN_MILLIS}. Then a single trial request is let through: the circuit closes again
+ * if it succeeds and stays open for another period if it fails.
+ * The circuit can also be opened for a given time, e.g. when the service asks to retry later.
+ */
+final class CircuitBreaker {
+
+    /** Number of failures in a row which open the circuit */
+    private static final int FAILURE_THRESHOLD = 5;
+
+    /** Time during which an open circuit rejects all requests */
+    private static final long OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final int mFailureThreshold;
+
+    private final long mOpenMillis;
+
+    private int mConsecutiveFailures;
+
+    /** Time in milliseconds of {@link System#nanoTime()} until which requests are rejected */
+    private long mOpenUntil;
+
+    private boolean mOpen;
+
+    /** True while the trial request after an open period is in progress */
+    private boolean mTrialInProgress;
+
+    CircuitBreaker() {
+        this(FAILURE_THRESHOLD, OPEN_MILLIS);
+    }
+
+    /**
+     * @param failureThreshold number of failures in a row which open the circuit
+     * @param openMillis       time during which an open circuit rejects all requests
+     */
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * Return true if a request can be made now. A caller which gets true must report
+     * the result of its request with {@link #onSuccess()} or {@link #onFailure()}.
+     */
+    synchronized boolean allowRequest() {
+        if (!mOpen) {
+            return true;
+        }
+        if (now() < mOpenUntil || mTrialInProgress) {
+            return false;
+        }
+        mTrialInProgress = true;
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        mConsecutiveFailures = 0;
+        mOpen = false;
+        mTrialInProgress = false;
+    }
+
+    synchronized void onFailure() {
+        mConsecutiveFailures++;
+        if (mTrialInProgress || mConsecutiveFailures >= mFailureThreshold) {
+            open(mOpenMillis);
+        }
+    }
+
+    /**
+     * Reject all requests for at least the given time.
+     */
+    synchronized void openFor(long millis) {
+        open(millis);
+    }
+
+    synchronized boolean isOpen() {
+        return mOpen;
+    }
+
+    private void open(long millis) {
+        mOpen = true;
+        mTrialInProgress = false;
+        mOpenUntil = Math.max(mOpenUntil, now() + millis);
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+}
@@ -0,0 +1,218 @@
+package com.example.android.booklisting;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Directory of files keyed by strings, limited by total size. When the limit is exceeded,
+ * the least recently used files are deleted. Must not be used on the main thread.
+ * Files are written under a temporary name and renamed when complete, so a reader or a crash
+ * in the middle of a write never sees a partial entry.
+ */
+final class DiskCache {
+
+    private static final String LOG_TAG = DiskCache.class.getSimpleName();
+
+    /** Suffix of the files being written */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+
+    private final long mMaxBytes;
+
+    /** Total size of the files in the directory, -1 until the directory has been scanned */
+    private long mBytes = -1;
+
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    DiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Return the data stored for the given key, or null if there is none.
+     */
+    synchronized byte[] get(String key) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            byte[] data = readFile(file);
+            // Mark the file as recently used so it is evicted last
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading cached file " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Return true if data is stored for the given key, without reading it.
+     */
+    synchronized boolean contains(String key) {
+        return getFile(key).exists();
+    }
+
+    /**
+     * Store the data for the given key, evicting the least recently used files
+     * if the cache becomes too big.
+     */
+    synchronized void put(String key, byte[] data) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Can't create cache directory " + mDirectory);
+            return;
+        }
+        if (mBytes < 0) {
+            mBytes = 0;
+            for (File file : listFiles()) {
+                mBytes += file.length();
+            }
+            // Left by a write interrupted by the end of the process
+            File[] tempFiles = mDirectory.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File directory, String name) {
+                    return name.endsWith(TEMP_SUFFIX);
+                }
+            });
+            for (int i = 0; tempFiles != null && i < tempFiles.length; i++) {
+                tempFiles[i].delete();
+            }
+        }
+
+        File file = getFile(key);
+        File tempFile = new File(mDirectory, file.getName() + TEMP_SUFFIX);
+        long oldLength = file.length();
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            out.write(data);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Can't rename " + tempFile + " to " + file);
+            }
+            mBytes += data.length - oldLength;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing cached file " + file, e);
+            tempFile.delete();
+        } finally {
+            closeQuietly(out);
+        }
+
+        if (mBytes > mMaxBytes) {
+            trim();
+        }
+    }
+
+    /**
+     * Delete the data stored for the given key, if any.
+     */
+    synchronized void remove(String key) {
+        File file = getFile(key);
+        long length = file.length();
+        if (file.delete() && mBytes >= 0) {
+            mBytes -= length;
+        }
+    }
+
+    long getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    // Delete the least recently used files until the cache fits into its size limit
+    private void trim() {
+        File[] files = listFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long firstModified = first.lastModified();
+                long secondModified = second.lastModified();
+                return firstModified < secondModified ? -1 : (firstModified == secondModified ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (mBytes <= mMaxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                mBytes -= length;
+                mEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    // Returns the complete files, without those being written
+    private File[] listFiles() {
+        File[] files = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File directory, String name) {
+                return !name.endsWith(TEMP_SUFFIX);
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    // File names are hashes of the keys, because keys like URLs contain characters not allowed in file names
+    private File getFile(String key) {
+        return new File(mDirectory, hashKey(key));
+    }
+
+    private static String hashKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(key.getBytes(Charset.forName("UTF-8")));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            // Throws EOFException if the file is shorter than its length was
+            in.readFully(data);
+            if (in.read() >= 0) {
+                throw new IOException("File " + file + " is longer than its length");
+            }
+        } finally {
+            closeQuietly(in);
+        }
+        return data;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+}
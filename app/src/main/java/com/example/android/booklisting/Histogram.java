@@ -0,0 +1,72 @@
+package com.example.android.booklisting;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in microseconds. Values are counted in buckets whose
+ * upper bounds are powers of two, so recording is a few atomic increments and percentiles
+ * are estimated to within a factor of two.
+ */
+final class Histogram {
+
+    /** Bucket i counts values below 2^i microseconds, the last one everything from about 35 minutes */
+    private static final int BUCKET_COUNT = 32;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong mCount = new AtomicLong();
+
+    private final AtomicLong mSum = new AtomicLong();
+
+    private final AtomicLong mMax = new AtomicLong();
+
+    void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mSum.addAndGet(micros);
+        long max = mMax.get();
+        while (micros > max && !mMax.compareAndSet(max, micros)) {
+            max = mMax.get();
+        }
+    }
+
+    long getCount() {
+        return mCount.get();
+    }
+
+    long getMeanMicros() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    long getMaxMicros() {
+        return mMax.get();
+    }
+
+    /**
+     * Return the upper bound of the bucket containing the given percentile (0-100) of the values,
+     * or 0 if nothing has been recorded.
+     */
+    long getPercentileMicros(double percentile) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                // The maximum is a tighter bound for the bucket holding the largest values
+                return Math.min(1L << i, mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+}
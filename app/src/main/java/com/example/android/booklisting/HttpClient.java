@@ -0,0 +1,272 @@
+package com.example.android.booklisting;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP client shared by the book search requests and the thumbnail downloads.
+ * Connections are kept alive and reused between requests to the same host, so TCP and TLS
+ * handshakes are paid once per session rather than once per page, response bodies are
+ * requested gzip-compressed, and every request is timed.
+ */
+final class HttpClient {
+
+    /** Receives the timing of every finished request */
+    interface RequestListener {
+        /**
+         * @param url           requested URL
+         * @param responseCode  HTTP response code, or -1 if the request failed without a response
+         * @param headersMillis time from the start of the request until the response headers arrived
+         * @param totalMillis   time from the start of the request until the body was read and closed
+         * @param bytesReceived number of body bytes received over the network, before decompression
+         */
+        void onRequestFinished(URL url, int responseCode, long headersMillis, long totalMillis,
+                               long bytesReceived);
+    }
+
+    /** Default time to wait for a connection to be established */
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+
+    /** Default time to wait for data from an established connection */
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+
+    /** Maximum number of idle connections kept alive per host */
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+
+    static {
+        // Read by the platform connection pool when it is first used
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+    }
+
+    private static final HttpClient sDefault = new HttpClient();
+
+    private volatile int mConnectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+    private volatile int mReadTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    private volatile RequestListener mRequestListener;
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mFailedRequests = new AtomicLong();
+    private final AtomicLong mTotalMillis = new AtomicLong();
+    private final AtomicLong mBytesReceived = new AtomicLong();
+
+    /**
+     * Return the client shared by the whole app.
+     */
+    static HttpClient getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Set the timeouts of the requests made from now on.
+     */
+    void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    void setRequestListener(RequestListener requestListener) {
+        mRequestListener = requestListener;
+    }
+
+    /**
+     * Send a GET request with the given extra headers, which may be null.
+     * The returned response must be closed to return its connection to the pool.
+     */
+    Response get(URL url, Map<String, String> headers) throws IOException {
+        long startTime = System.nanoTime();
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        try {
+            urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+            urlConnection.setReadTimeout(mReadTimeoutMillis);
+            urlConnection.setRequestMethod("GET");
+            // Our own caches are used, so the platform one must not answer instead of the server
+            urlConnection.setUseCaches(false);
+            // Asking for gzip explicitly turns off transparent decompression, so it is done
+            // by the response, which can then count the compressed bytes
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    urlConnection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            int responseCode = urlConnection.getResponseCode();
+            return new Response(url, urlConnection, responseCode, startTime);
+        } catch (IOException e) {
+            // A failed connection must not go back to the pool
+            urlConnection.disconnect();
+            finishRequest(url, -1, 0, startTime, 0);
+            throw e;
+        }
+    }
+
+    long getRequestCount() {
+        return mRequests.get();
+    }
+
+    long getFailedRequestCount() {
+        return mFailedRequests.get();
+    }
+
+    long getTotalRequestMillis() {
+        return mTotalMillis.get();
+    }
+
+    long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    private void finishRequest(URL url, int responseCode, long headersTime, long startTime,
+                               long bytesReceived) {
+        long endTime = System.nanoTime();
+        long totalMillis = (endTime - startTime) / 1000000;
+        long headersMillis = headersTime == 0 ? totalMillis : (headersTime - startTime) / 1000000;
+
+        mRequests.incrementAndGet();
+        if (responseCode < 0) {
+            mFailedRequests.incrementAndGet();
+        }
+        mTotalMillis.addAndGet(totalMillis);
+        mBytesReceived.addAndGet(bytesReceived);
+
+        RequestListener requestListener = mRequestListener;
+        if (requestListener != null) {
+            requestListener.onRequestFinished(url, responseCode, headersMillis, totalMillis, bytesReceived);
+        }
+    }
+
+    /**
+     * Response to a request. Closing it reads the rest of the body, so the connection can be reused.
+     */
+    final class Response implements Closeable {
+
+        private final URL mUrl;
+
+        private final HttpURLConnection mConnection;
+
+        private final int mCode;
+
+        private final long mStartTime;
+
+        private final long mHeadersTime;
+
+        private CountingInputStream mRawBody;
+
+        private InputStream mBody;
+
+        private boolean mClosed;
+
+        private Response(URL url, HttpURLConnection connection, int code, long startTime) {
+            mUrl = url;
+            mConnection = connection;
+            mCode = code;
+            mStartTime = startTime;
+            mHeadersTime = System.nanoTime();
+        }
+
+        int getCode() {
+            return mCode;
+        }
+
+        String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * Return the value of the header with an HTTP date in milliseconds, or 0 if there is none.
+         */
+        long getHeaderDate(String name) {
+            return mConnection.getHeaderFieldDate(name, 0);
+        }
+
+        /**
+         * Return the decompressed response body.
+         */
+        InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream in = mCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getErrorStream() : mConnection.getInputStream();
+                if (in == null) {
+                    in = new ByteArrayInputStream(new byte[0]);
+                }
+                mRawBody = new CountingInputStream(in);
+                mBody = "gzip".equalsIgnoreCase(mConnection.getContentEncoding())
+                        ? new GZIPInputStream(mRawBody) : mRawBody;
+            }
+            return mBody;
+        }
+
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                // Reading the body to the end lets the platform put the connection back to the pool
+                InputStream body = getBody();
+                byte[] buffer = new byte[1024];
+                while (body.read(buffer) != -1) {
+                    // Nothing to do with the data
+                }
+                body.close();
+            } catch (IOException e) {
+                mConnection.disconnect();
+            }
+            finishRequest(mUrl, mCode, mHeadersTime, mStartTime,
+                    mRawBody == null ? 0 : mRawBody.getCount());
+        }
+    }
+
+    /**
+     * Stream counting the bytes read from it.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.example.android.booklisting;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Search-as-you-type support. Query text changes are debounced, so a search starts only after
+ * the user pauses typing, and while the refined query is loading, the books already loaded for
+ * a shorter query it starts with are filtered locally and shown instantly.
+ * Must be used on the main thread.
+ */
+final class IncrementalSearch {
+
+    /** Receives the debounced queries */
+    interface Listener {
+        /**
+         * Called with the books loaded for a prefix of the query which match it,
+         * before the search for the query itself starts. The list may be empty.
+         */
+        void onLocalResults(String query, List<Book> books);
+
+        void onSearch(String query);
+    }
+
+    /** Time without typing after which the search starts */
+    private static final long DEBOUNCE_MILLIS = 400;
+
+    /** Queries shorter than this are too broad to search while typing */
+    private static final int MIN_QUERY_LENGTH = 3;
+
+    /** Number of recent queries whose results are kept for filtering */
+    private static final int MAX_REMEMBERED_QUERIES = 8;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Listener mListener;
+
+    /** Books loaded for the recent queries, in access order */
+    private final LinkedHashMap<String, List<Book>> mResults =
+            new LinkedHashMap<String, List<Book>>(MAX_REMEMBERED_QUERIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<Book>> eldest) {
+                    return size() > MAX_REMEMBERED_QUERIES;
+                }
+            };
+
+    private String mPendingQuery;
+
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            String query = mPendingQuery;
+            mPendingQuery = null;
+            mListener.onLocalResults(query, findPrefixResults(query));
+            mListener.onSearch(query);
+        }
+    };
+
+    IncrementalSearch(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Schedule a search for the changed query text, replacing the one scheduled before.
+     */
+    void onQueryTextChange(String queryText) {
+        cancel();
+        String query = queryText == null ? "" : queryText.trim();
+        if (query.length() < MIN_QUERY_LENGTH) {
+            return;
+        }
+        mPendingQuery = query;
+        mHandler.postDelayed(mSearchRunnable, DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Drop the scheduled search, e.g. because the query has been submitted.
+     */
+    void cancel() {
+        mPendingQuery = null;
+        mHandler.removeCallbacks(mSearchRunnable);
+    }
+
+    /**
+     * Remember the books loaded for the query, to filter them for the longer queries typed later.
+     * The books of the first page replace the ones remembered for the query before.
+     */
+    void addResults(String query, List<Book> books, boolean isFirstPage) {
+        String key = normalize(query);
+        List<Book> results = mResults.get(key);
+        if (results == null || isFirstPage) {
+            results = new ArrayList<>();
+            mResults.put(key, results);
+        }
+        results.addAll(books);
+    }
+
+    /**
+     * Forget the books remembered for all queries, e.g. because they were loaded with search
+     * settings which have changed.
+     */
+    void clearResults() {
+        mResults.clear();
+    }
+
+    /**
+     * Return the approximate number of bytes of memory used by the remembered books. Books also
+     * shown in the list are counted too, so it errs on the high side.
+     */
+    long getRetainedBytes() {
+        long retainedBytes = 0;
+        for (List<Book> books : mResults.values()) {
+            for (Book book : books) {
+                retainedBytes += book.getRetainedBytes();
+            }
+        }
+        return retainedBytes;
+    }
+
+    /**
+     * Return the books loaded for the longest remembered query which the given query starts with,
+     * keeping only those which contain every word of the given query in their title or authors.
+     */
+    private List<Book> findPrefixResults(String query) {
+        String normalizedQuery = normalize(query);
+        List<Book> prefixResults = null;
+        int prefixLength = -1;
+        for (Map.Entry<String, List<Book>> entry : mResults.entrySet()) {
+            String prefix = entry.getKey();
+            if (normalizedQuery.startsWith(prefix) && prefix.length() > prefixLength) {
+                prefixResults = entry.getValue();
+                prefixLength = prefix.length();
+            }
+        }
+
+        List<Book> matchingBooks = new ArrayList<>();
+        if (prefixResults == null) {
+            return matchingBooks;
+        }
+        String[] words = normalizedQuery.split("\\s+");
+        for (Book book : prefixResults) {
+            if (matches(book, words)) {
+                matchingBooks.add(book);
+            }
+        }
+        return matchingBooks;
+    }
+
+    private static boolean matches(Book book, String[] words) {
+        String text = normalize(book.getTitle())
+                + (book.getAuthor() == null ? "" : " " + normalize(book.getAuthor()));
+        for (String word : words) {
+            if (!text.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalize(String text) {
+        return text.trim().toLowerCase(Locale.getDefault());
+    }
+
+}
@@ -1,124 +1,268 @@
 package com.example.android.booklisting;
 
+import android.app.ActivityManager;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.graphics.Bitmap;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AbsListView;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
 import android.widget.ProgressBar;
 import android.widget.SearchView;
 import android.widget.TextView;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class MainActivity extends AppCompatActivity {
 
-    /** URL base for books data from the Google Books API */
-    private static final String REQUEST_URL_BASE =
-            "https://www.googleapis.com/books/v1/volumes";
-
-    /** Object for storing a list of Books loaded using Google Books API */
-    private ArrayList<Book> bookList;
-
     /** Adapter for the list of books */
     private BookAdapter mBookAdapter;
 
+    /** Loader of the pages of books from the server */
+    private BookLoader mBookLoader;
+
+    /** Loader downloading book thumbnails in background after a page of books is shown */
+    private ThumbnailLoader mThumbnailLoader;
+
     /** Progress bar to be shown while books are being loaded from server */
     private View mLoadProgressBar;
 
     private static final String LOG_TAG = MainActivity.class.getName();
 
+    /** Keys of the refinement of the shown books in the saved instance state */
+    private static final String STATE_REFINE_AUTHOR = "refine_author";
+    private static final String STATE_REFINE_YEAR = "refine_year";
+    private static final String STATE_REFINE_FREE_ONLY = "refine_free_only";
+
+    /** Maximum number of authors and of years offered to refine the shown books */
+    private static final int MAX_REFINE_OPTIONS = 5;
+
     /** TextView that is displayed when the list is empty */
     private TextView mEmptyStateTextView;
 
-    /** Set of vars for auto loading books using OnScrollListener */
-    // The minimum amount of items to have below your current scroll position, before loading more.
-    private static final int BOOK_LOAD_THRESHOLD = 5;
+    /** Loads pages of books ahead of the scroll position */
+    private PagePrefetcher mPagePrefetcher;
+
+    /** Starts searches while the user is typing the query */
+    private IncrementalSearch mIncrementalSearch;
+
+    /** True once the first page of the current query has come from the server or the cache */
+    private boolean mFirstPageLoaded;
+
+    /**
+     * True if books are shown while the first page is loading, found in the local book store
+     * or loaded with the previous search settings
+     */
+    private boolean mLocalResultsShown;
+
+    /** Process start time, or activity creation time where it isn't available, in uptime milliseconds */
+    private long mStartUptimeMillis;
 
-    // Index in the list of books on the remote server to star loading from
-    private int bookLoadStartIndex = 0;
+    /** True once the time until the first books were drawn has been reported */
+    private boolean mFirstContentReported;
 
-    // Number of books to load per one request to server
-    private static final int BOOK_LOAD_PORTION = 10;
+    private SearchView mSearchView;
 
-    // Flag indicating that we are still waiting for the last set of data to load - if True
-    private boolean loadInProgress = true;
+    private LinearLayoutManager mLayoutManager;
 
-    private String currentQueryText;
+    /** Books loaded for the query, filtered and sorted in memory without loading them again */
+    private final BookIndex mBookIndex = new BookIndex();
 
-    // Creates OnScrollListener used to start loading new portion of books when list is scrolled to the end
-    private AbsListView.OnScrollListener booksOnScrollListener = new AbsListView.OnScrollListener() {
+    /** Author the shown books are refined to, or null for all authors */
+    private String mRefineAuthor;
 
+    /** Publication year the shown books are refined to, or {@link BookIndex#ANY} */
+    private int mRefineYear = BookIndex.ANY;
+
+    /** True if the shown books are refined to free eBooks, whatever the settings */
+    private boolean mRefineFreeOnly;
+
+    /** Keeps the memory used by the books and the thumbnails within the budget */
+    private MemoryGovernor mMemoryGovernor;
+
+    // Counts the loaded books against the memory budget. They are shown or a scroll away, so
+    // only the books remembered for search-as-you-type are released, which are loaded again
+    // when their queries are searched.
+    private final MemoryGovernor.Consumer mBooksMemoryConsumer = new MemoryGovernor.Consumer() {
         @Override
-        public void onScrollStateChanged(AbsListView absListView, int i) {
+        public long getRetainedBytes() {
+            return mBookIndex.getRetainedBytes() + mIncrementalSearch.getRetainedBytes();
         }
 
         @Override
-        public void onScroll(AbsListView absListView, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        public void trimTo(long maxBytes) {
+            if (getRetainedBytes() > maxBytes) {
+                mIncrementalSearch.clearResults();
+            }
+        }
+    };
 
-            if (!loadInProgress && totalItemCount > 0 && (totalItemCount - visibleItemCount) <= (firstVisibleItem + BOOK_LOAD_THRESHOLD)) {
-                new BookLoadTask(false).execute(buildBookLoadUrlString(currentQueryText));
-                loadInProgress = true;
-                bookLoadStartIndex += BOOK_LOAD_PORTION;
-                Log.i(LOG_TAG, "Async task created from onScroll");
+    // Loads the shown query again when a search setting changes, even while the settings are open,
+    // so the list is up to date when the user comes back. Kept in a field because the preferences
+    // only hold weak references to their listeners.
+    private final SharedPreferences.OnSharedPreferenceChangeListener mSettingsListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    if (getString(R.string.settings_order_by_key).equals(key)
+                            || getString(R.string.settings_only_free_ebooks_key).equals(key)
+                            || getString(R.string.settings_page_size_key).equals(key)) {
+                        onSearchSettingsChanged(key);
+                    }
+                }
+            };
+
+    // Creates OnScrollListener used to load new portions of books before list is scrolled to the end.
+    // It is also called after the layout of appended rows, so loading continues without scrolling.
+    private RecyclerView.OnScrollListener booksOnScrollListener = new RecyclerView.OnScrollListener() {
+
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                mPagePrefetcher.onScrollIdle();
             }
+            // Rows pass by too fast during a fling to be worth decoding thumbnails for
+            mThumbnailLoader.setPaused(newState == RecyclerView.SCROLL_STATE_SETTLING);
+        }
 
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+            int firstVisibleItem = layoutManager.findFirstVisibleItemPosition();
+            if (firstVisibleItem == RecyclerView.NO_POSITION) {
+                return;
+            }
+            int visibleItemCount = layoutManager.findLastVisibleItemPosition() - firstVisibleItem + 1;
+            mPagePrefetcher.onScroll(firstVisibleItem, visibleItemCount, layoutManager.getItemCount());
         }
     };
 
-    // Save loaded books data to show it again when user rotates screen
+    // Save loaded books data to show it again when user rotates screen. All the loaded books are
+    // kept, including those filtered out, so the refinement can be changed after the rotation.
     @Override
     public Object onRetainCustomNonConfigurationInstance() {
-        return bookList;
+        return mBookIndex.size() > 0 ? mBookIndex.getBooks() : mBookAdapter.getBooks();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_REFINE_AUTHOR, mRefineAuthor);
+        outState.putInt(STATE_REFINE_YEAR, mRefineYear);
+        outState.putBoolean(STATE_REFINE_FREE_ONLY, mRefineFreeOnly);
     }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mStartUptimeMillis = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Process.getStartUptimeMillis() : SystemClock.uptimeMillis();
 
         super.onCreate(savedInstanceState);
+
+        // Time every request of the shared HTTP client
+        HttpClient.getDefault().setRequestListener(Metrics.getInstance());
+
+        // Warm up the network and storage layers while the UI is being created
+        StartupPrewarmer.prewarm(this);
+
         setContentView(R.layout.activity_main);
 
-        ListView bookListView = (ListView) findViewById(R.id.list);
+        RecyclerView bookListView = (RecyclerView) findViewById(R.id.list);
 
         mLoadProgressBar = findViewById(R.id.loading_spinner);
 
         mEmptyStateTextView = (TextView) findViewById(R.id.empty_list_view);
 
-        bookListView.setEmptyView(mEmptyStateTextView);
-        bookListView.setOnScrollListener(booksOnScrollListener);
+        // Pages are loaded ahead of the scroll position, so the prefetcher must exist before scrolling starts
+        final BookStore bookStore = BookStore.getInstance(this);
+        mBookLoader = new BookLoader(RequestBroker.getInstance(this), bookStore);
+        mPagePrefetcher = new PagePrefetcher(mBookLoader, new PagePrefetcher.Listener() {
+            @Override
+            public String buildPageUrl(String query, int startIndex, int pageSize) {
+                return buildBookLoadUrlString(query, startIndex, pageSize);
+            }
 
-        // Load previously saved data of loaded books
-        if (getLastCustomNonConfigurationInstance() == null) {
-            bookList = new ArrayList<Book>();
-        } else {
-            bookList = (ArrayList<Book>) getLastCustomNonConfigurationInstance();
-        }
+            @Override
+            public void onPageLoaded(BookPage page, boolean isFirstPage) {
+                onBookPageLoaded(page, isFirstPage);
+            }
 
-        // Create custom ArrayAdapter and link it to the ListView
-        mBookAdapter = new BookAdapter(this, bookList);
-        bookListView.setAdapter(mBookAdapter);
+            @Override
+            public void onBooksUpdated(List<Book> books) {
+                mBookIndex.update(books);
+                BookIndex.Query viewQuery = getViewQuery();
+                if (viewQuery.isRefined()) {
+                    // The changed books may now match the refinement or not any more
+                    showView(viewQuery);
+                } else {
+                    mBookAdapter.updateBooks(books);
+                }
+            }
+        });
 
-        // Set OnCLickListener to the ListView to be able to open a link to view info about selected book
-        bookListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Show the books of a shorter query matching the typed one while the typed one is loading
+        mIncrementalSearch = new IncrementalSearch(new IncrementalSearch.Listener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                // Find the current book that was clicked on
-                Book currentBook = mBookAdapter.getItem(position);
+            public void onLocalResults(String query, List<Book> books) {
+                if (!books.isEmpty() && !query.equals(mPagePrefetcher.getQuery())) {
+                    mBookAdapter.setBooks(books);
+                }
+            }
 
+            @Override
+            public void onSearch(String query) {
+                startSearch(query);
+                Log.i(LOG_TAG, "Book load started from onQueryTextChange");
+            }
+        });
+
+        // Rows all have the same height, so appended pages don't make the list measure itself again
+        mLayoutManager = new LinearLayoutManager(this);
+        bookListView.setLayoutManager(mLayoutManager);
+        bookListView.setHasFixedSize(true);
+        bookListView.setRecycledViewPool(BookAdapter.createViewPool());
+        bookListView.addItemDecoration(new DividerItemDecoration(this, mLayoutManager.getOrientation()));
+        bookListView.addOnScrollListener(booksOnScrollListener);
+
+        // Thumbnails are trimmed before the books, as the cache is the first consumer
+        ThumbnailCache thumbnailCache = ThumbnailCache.getInstance(this);
+        mMemoryGovernor = MemoryGovernor.getInstance(this);
+        mMemoryGovernor.addConsumer(mBooksMemoryConsumer);
+
+        // Refresh the rows showing a thumbnail when it is loaded, so they pick it up from the cache
+        mThumbnailLoader = new ThumbnailLoader(thumbnailCache, createThumbnailDecoder(thumbnailCache),
+                new ThumbnailLoader.Callback() {
+                    @Override
+                    public void onThumbnailLoaded(String thumbnailUrl, Bitmap thumbnail) {
+                        mBookAdapter.onThumbnailLoaded(thumbnailUrl);
+                    }
+                });
+
+        // Create custom adapter opening a link to view info about the clicked book
+        mBookAdapter = new BookAdapter(this, mThumbnailLoader, new BookAdapter.OnBookClickListener() {
+            @Override
+            public void onBookClick(Book currentBook) {
                 // Convert the String URL into a URI object (to pass into the Intent constructor)
                 Uri bookUri = Uri.parse(currentBook.getPreviewLink());
 
@@ -130,56 +274,124 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
-        // If there is a network connection, fetch data
-        if (hasInternetConnection()) {
-            SearchView searchView = (SearchView) findViewById(R.id.search_view);
+        // Show the empty state text only while there are no books in the list
+        mBookAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyStateVisibility();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyStateVisibility();
+            }
 
-            // Set listener to the SearchView to process search query inputs from users
-            searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
-                @Override
-                public boolean onQueryTextSubmit(String query) {
-                    // Perform request only if search query is not empty (null or 0-length)
-                    if (!TextUtils.isEmpty(query)) {
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyStateVisibility();
+            }
+        });
 
-                        currentQueryText = query;
+        if (savedInstanceState != null) {
+            mRefineAuthor = savedInstanceState.getString(STATE_REFINE_AUTHOR);
+            mRefineYear = savedInstanceState.getInt(STATE_REFINE_YEAR, BookIndex.ANY);
+            mRefineFreeOnly = savedInstanceState.getBoolean(STATE_REFINE_FREE_ONLY);
+        }
 
-                        // Reset startIndex to load books from the beginning of the list because of new search query
-                        bookLoadStartIndex = 0;
+        // Load previously saved data of loaded books, or the books of the last session on a cold start
+        if (getLastCustomNonConfigurationInstance() != null) {
+            mBookIndex.add((List<Book>) getLastCustomNonConfigurationInstance());
+            mBookAdapter.addBooks(mBookIndex.query(getViewQuery()));
+        } else if (savedInstanceState == null) {
+            restoreSessionSnapshot();
+        }
+        bookListView.setAdapter(mBookAdapter);
+        updateEmptyStateVisibility();
 
-                        // Start displaying progress bar
-                        mLoadProgressBar.setVisibility(View.VISIBLE);
+        // Searches work without a network connection too, answered from the response cache
+        mSearchView = (SearchView) findViewById(R.id.search_view);
 
-                        // Create AsyncTask to start loading books with True parameter indicating that it is a new search query
-                        new BookLoadTask(true).execute(buildBookLoadUrlString(query));
-                        loadInProgress = true;
-                        bookLoadStartIndex += BOOK_LOAD_PORTION;
-                        Log.i(LOG_TAG, "Async task created from onQueryTextSubmit");
-                    }
-                    return false;
-                }
+        // Set listener to the SearchView to process search query inputs from users
+        mSearchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // The submitted query replaces the one scheduled while typing
+                mIncrementalSearch.cancel();
+                startSearch(query);
+                Log.i(LOG_TAG, "Book load started from onQueryTextSubmit");
+                return false;
+            }
 
+            @Override
+            public boolean onQueryTextChange(String s) {
+                // Search while typing, once the user pauses
+                mIncrementalSearch.onQueryTextChange(s);
+                return true;
+            }
+        });
+
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .registerOnSharedPreferenceChangeListener(mSettingsListener);
+
+        // Work not needed for the first frame is done once it has been drawn
+        final boolean isColdStart = savedInstanceState == null;
+        runAfterNextFrame(new Runnable() {
+            @Override
+            public void run() {
+                reportStartupTime(Metrics.Stage.STARTUP_FIRST_FRAME, "first frame");
+                runDeferredStartupWork(bookStore, isColdStart);
+            }
+        });
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Keep what is shown for the next cold start
+        final String query = mPagePrefetcher.getQuery();
+        if (query != null && mBookAdapter.getItemCount() > 0) {
+            final List<Book> books = mBookAdapter.getBooks();
+            final Context appContext = getApplicationContext();
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
                 @Override
-                public boolean onQueryTextChange(String s) {
-                    return false;
+                public void run() {
+                    SessionSnapshot.save(appContext, query, books);
                 }
             });
-
-        } else {
-            // Otherwise, display error
-            // First, hide loading indicator so error message will be visible
-            mLoadProgressBar.setVisibility(ProgressBar.GONE);
-
-            // Update empty state with no connection error message
-            mEmptyStateTextView.setText(R.string.no_internet);
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .unregisterOnSharedPreferenceChangeListener(mSettingsListener);
+        mMemoryGovernor.removeConsumer(mBooksMemoryConsumer);
+        mIncrementalSearch.cancel();
+        mBookLoader.shutdown();
+        mThumbnailLoader.shutdown();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // The current query can be saved, or removed if it is saved already
+        String query = mPagePrefetcher.getQuery();
+        MenuItem saveQueryItem = menu.findItem(R.id.action_save_query);
+        saveQueryItem.setVisible(query != null);
+        if (query != null) {
+            saveQueryItem.setTitle(SavedQueries.contains(this, query)
+                    ? R.string.remove_saved_query_menu_item : R.string.save_query_menu_item);
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
@@ -187,61 +399,384 @@ public class MainActivity extends AppCompatActivity {
             Intent settingsIntent = new Intent(this, SettingsActivity.class);
             startActivity(settingsIntent);
             return true;
+        } else if (id == R.id.action_save_query) {
+            String query = mPagePrefetcher.getQuery();
+            if (query != null) {
+                if (SavedQueries.contains(this, query)) {
+                    SavedQueries.remove(this, query);
+                } else {
+                    SavedQueries.add(this, query);
+                }
+                invalidateOptionsMenu();
+            }
+            return true;
+        } else if (id == R.id.action_refine) {
+            showRefineOptions();
+            return true;
+        } else if (id == R.id.action_saved_queries) {
+            showSavedQueries();
+            return true;
+        } else if (id == R.id.action_metrics) {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
-    /**
-     * AsyncTask class for loading books data in background thread
-     */
-    private class BookLoadTask extends AsyncTask<String, Void, List<Book>> {
+    // Start loading books from the beginning of the list because of new search query.
+    // Pages of the previous query are cancelled, so they never reach the list.
+    private void startSearch(String query) {
+        // Perform request only if search query is not empty (null or 0-length)
+        if (TextUtils.isEmpty(query) || TextUtils.isEmpty(query.trim())) {
+            return;
+        }
+        query = query.trim();
+
+        // The same query is already loaded or loading, e.g. submitted after it was searched while typing
+        if (query.equals(mPagePrefetcher.getQuery())) {
+            return;
+        }
+
+        // Start displaying progress bar
+        mLoadProgressBar.setVisibility(View.VISIBLE);
+
+        mFirstPageLoaded = false;
+        mLocalResultsShown = false;
+        // A new query shows all its books again
+        mRefineAuthor = null;
+        mRefineYear = BookIndex.ANY;
+        mRefineFreeOnly = false;
+        mPagePrefetcher.setMinPageSize(SearchSettings.getPageSize(this));
+        mPagePrefetcher.startQuery(query);
+        // The save menu item applies to the new query
+        invalidateOptionsMenu();
+
+        // Show the matching books stored locally until the server responds, or if it can't be reached
+        mBookLoader.loadLocal(query, new BookLoader.Callback() {
+            @Override
+            public void onBooksLoaded(BookPage page) {
+                if (!mFirstPageLoaded && page != null && !page.getBooks().isEmpty()) {
+                    mLocalResultsShown = true;
+                    mBookAdapter.setBooks(page.getBooks());
+                }
+            }
+        });
+    }
 
-        private boolean isSearchQueryChanged = true;
+    // Loads the shown query again with the changed settings. The books stay in the list until the
+    // first page arrives, which is sized to fill the rows on the screen, and the rows of the books
+    // found again are kept with their thumbnails. Pages further down are loaded as usual while scrolling.
+    private void onSearchSettingsChanged(String key) {
+        // Books remembered for search-as-you-type were loaded with the old settings
+        mIncrementalSearch.clearResults();
+        // The saved queries are synced again by the next sync job, whenever it last ran
+        SavedQueries.setLastSyncTime(this, 0);
+
+        String query = mPagePrefetcher.getQuery();
+        if (query == null) {
+            return;
+        }
 
-        private BookLoadTask(boolean isSearchQueryChanged) {
-            this.isSearchQueryChanged = isSearchQueryChanged;
+        // Publication dates and saleabilities are indexed, so the newest-first order and the free
+        // eBooks can be shown before the server responds
+        boolean onlyFreeEBooks = SearchSettings.isOnlyFreeEBooks(this);
+        boolean newestFirst = SearchSettings.isOrderByNewest(this);
+        boolean orderChanged = getString(R.string.settings_order_by_key).equals(key);
+        boolean onlyFreeEBooksEnabled = onlyFreeEBooks
+                && getString(R.string.settings_only_free_ebooks_key).equals(key);
+        if (mBookIndex.size() > 0 && (orderChanged && newestFirst || onlyFreeEBooksEnabled)) {
+            BookIndex.Query viewQuery = getViewQuery();
+            int saleability = onlyFreeEBooks ? Book.SALEABILITY_FREE : viewQuery.saleability;
+            mBookAdapter.setBooks(mBookIndex.query(new BookIndex.Query(
+                    viewQuery.author, viewQuery.year, saleability, newestFirst)));
         }
 
-        protected List<Book> doInBackground(String... urls) {
+        mLoadProgressBar.setVisibility(View.VISIBLE);
+        mFirstPageLoaded = false;
+        mLocalResultsShown = mBookAdapter.getItemCount() > 0;
+        mPagePrefetcher.setMinPageSize(SearchSettings.getPageSize(this));
+        int lastVisibleItem = mLayoutManager.findLastVisibleItemPosition();
+        mPagePrefetcher.startQuery(query, lastVisibleItem + 1 + PagePrefetcher.MIN_ROWS_AHEAD);
+    }
+
+    // Shows a page of books loaded by the PagePrefetcher, clearing the old books if it starts a new query
+    private void onBookPageLoaded(BookPage page, boolean isFirstPage) {
+        Log.i(LOG_TAG, "Book load completed, "
+                + (page == null ? "failed" : page.getBooks().size() + " new books"));
 
-            // Don't perform the request if there are no URLs, or the first URL is null.
-            if (TextUtils.isEmpty(urls[0])) {
-                return null;
-            }
+        // Hide loading indicator because the data has been loaded
+        mLoadProgressBar.setVisibility(ProgressBar.GONE);
+
+        // Keep showing the locally stored books if the server couldn't be reached
+        if (isFirstPage && page == null && mLocalResultsShown) {
+            return;
+        }
+        if (isFirstPage) {
+            mFirstPageLoaded = true;
+        }
+
+        // Set empty state text to display "No books found.", or the connection error
+        // if the server couldn't be reached and there was no cached response
+        if (page == null) {
+            mEmptyStateTextView.setText(R.string.no_internet);
+        } else {
+            mEmptyStateTextView.setText(R.string.no_books_found);
+        }
+
+        List<Book> books = page == null ? new ArrayList<Book>() : page.getBooks();
+
+        // Books are appended to the index, so the new books matching the refinement go after
+        // the shown ones
+        if (isFirstPage) {
+            mBookIndex.clear();
+        }
+        int firstNewPosition = mBookIndex.size();
+        mBookIndex.add(books);
+        BookIndex.Query viewQuery = getViewQuery();
+        List<Book> shownBooks = viewQuery.isRefined() ? mBookIndex.query(viewQuery, firstNewPosition) : books;
+
+        // If user search query has changed, replace the old books in the adapter, keeping the rows
+        // of the ones found again. Later pages are appended, which only binds the new rows.
+        if (isFirstPage) {
+            mBookAdapter.setBooks(shownBooks);
+        } else {
+            mBookAdapter.addBooks(shownBooks);
+        }
+        if (shownBooks.isEmpty()) {
+            loadMoreIfNoRowsShown();
+        }
+
+        if (!books.isEmpty()) {
+            mIncrementalSearch.addResults(mPagePrefetcher.getQuery(), books, isFirstPage);
+        }
 
-            // If user search query has changed, clear list of books from old data
-            if (isSearchQueryChanged) {
-                bookList.clear();
+        // Thumbnails of the rows below the screen are downloaded after those of the bound rows
+        for (Book book : books) {
+            mThumbnailLoader.prefetch(book.getThumbnailUrl());
+        }
+
+        // The list only grows during a scroll session, so the least recently shown thumbnails
+        // make room for the new books once the budget is reached
+        mMemoryGovernor.enforceBudget();
+    }
+
+    private void updateEmptyStateVisibility() {
+        mEmptyStateTextView.setVisibility(mBookAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+        loadMoreIfNoRowsShown();
+
+        if (!mFirstContentReported && mBookAdapter.getItemCount() > 0) {
+            mFirstContentReported = true;
+            runAfterNextFrame(new Runnable() {
+                @Override
+                public void run() {
+                    reportStartupTime(Metrics.Stage.STARTUP_FIRST_CONTENT, "first books");
+                }
+            });
+        }
+    }
+
+    // Returns the query of the loaded books to show, refined in the menu. The free eBooks setting
+    // is applied by the server, and the order of the server is already the one chosen in the settings.
+    private BookIndex.Query getViewQuery() {
+        int saleability = mRefineFreeOnly ? Book.SALEABILITY_FREE : BookIndex.ANY;
+        return new BookIndex.Query(mRefineAuthor, mRefineYear, saleability, false);
+    }
+
+    // Replaces the shown books with the loaded ones matching the query
+    private void showView(BookIndex.Query query) {
+        long startNanos = System.nanoTime();
+        List<Book> books = mBookIndex.query(query);
+        Log.i(LOG_TAG, "Refined " + mBookIndex.size() + " books to " + books.size() + " in "
+                + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos) + " us");
+        mBookAdapter.setBooks(books);
+        if (books.isEmpty()) {
+            loadMoreIfNoRowsShown();
+        }
+    }
+
+    // There are no rows to scroll for more pages when none of the loaded books match the refinement,
+    // so the next pages are loaded until some do or there are no more
+    private void loadMoreIfNoRowsShown() {
+        if (mBookAdapter.getItemCount() == 0 && mBookIndex.size() > 0 && mPagePrefetcher.onNoRowsShown()) {
+            mLoadProgressBar.setVisibility(View.VISIBLE);
+        }
+    }
+
+    // Lets the user narrow down the shown books to free eBooks, a publication year or an author,
+    // with the number of shown books of each, counted from the loaded books without a request
+    private void showRefineOptions() {
+        final BookIndex.Query viewQuery = getViewQuery();
+        BookIndex.Facets facets = mBookIndex.facets(viewQuery);
+
+        // Value of every option: null for all books, a Boolean for free eBooks,
+        // an Integer for a year and a String for an author
+        final List<Object> values = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        if (mRefineAuthor != null || mRefineYear != BookIndex.ANY || mRefineFreeOnly) {
+            values.add(null);
+            labels.add(getString(R.string.refine_all_books, mBookIndex.size()));
+        }
+        int freeCount = facets.saleabilityCounts[Book.SALEABILITY_FREE];
+        // All the loaded books are free eBooks when the server filters them
+        if (viewQuery.saleability == BookIndex.ANY && freeCount > 0 && !SearchSettings.isOnlyFreeEBooks(this)) {
+            values.add(Boolean.TRUE);
+            labels.add(getString(R.string.refine_free_ebooks, freeCount));
+        }
+        if (mRefineYear == BookIndex.ANY) {
+            for (BookIndex.Count<Integer> year
+                    : facets.years.subList(0, Math.min(MAX_REFINE_OPTIONS, facets.years.size()))) {
+                values.add(year.value);
+                labels.add(getString(R.string.refine_year, year.value, year.count));
             }
+        }
+        if (mRefineAuthor == null) {
+            for (BookIndex.Count<String> author
+                    : facets.authors.subList(0, Math.min(MAX_REFINE_OPTIONS, facets.authors.size()))) {
+                values.add(author.value);
+                labels.add(getString(R.string.refine_author, author.value, author.count));
+            }
+        }
 
-            bookList = QueryUtils.fetchBooks(urls[0]);
-            return bookList;
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle(R.string.refine_title);
+        if (values.isEmpty()) {
+            builder.setMessage(R.string.refine_no_options);
+        } else {
+            builder.setItems(labels.toArray(new String[labels.size()]),
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            Object value = values.get(which);
+                            if (value == null) {
+                                mRefineAuthor = null;
+                                mRefineYear = BookIndex.ANY;
+                                mRefineFreeOnly = false;
+                            } else if (value instanceof Boolean) {
+                                mRefineFreeOnly = true;
+                            } else if (value instanceof Integer) {
+                                mRefineYear = (Integer) value;
+                            } else {
+                                mRefineAuthor = (String) value;
+                            }
+                            showView(getViewQuery());
+                        }
+                    });
         }
+        builder.show();
+    }
 
-        protected void onPostExecute(List<Book> books) {
-            // Load completed, so turning flag off
-            loadInProgress = false;
+    // Lets the user pick one of the saved queries, whose books are answered from the local storage
+    private void showSavedQueries() {
+        final List<String> queries = SavedQueries.getAll(this);
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle(R.string.saved_queries_title);
+        if (queries.isEmpty()) {
+            builder.setMessage(R.string.no_saved_queries);
+        } else {
+            builder.setItems(queries.toArray(new String[queries.size()]),
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            showQuery(queries.get(which));
+                        }
+                    });
+        }
+        builder.show();
+    }
 
-            Log.i(LOG_TAG, "Async task completed");
+    // Puts the query into the search view and searches it right away
+    private void showQuery(String query) {
+        mSearchView.setQuery(query, false);
+        mSearchView.clearFocus();
+        // Setting the query text doesn't need to wait for the typing to pause
+        mIncrementalSearch.cancel();
+        startSearch(query);
+    }
 
-            // Hide loading indicator because the data has been loaded
+    // Shows the books of the last session while its query is loaded again
+    private void restoreSessionSnapshot() {
+        final Context appContext = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final SessionSnapshot snapshot = SessionSnapshot.load(appContext);
+                if (snapshot == null) {
+                    return;
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The user may have started a search while the snapshot was being read
+                        if (isFinishing() || mPagePrefetcher.getQuery() != null
+                                || mBookAdapter.getItemCount() > 0) {
+                            return;
+                        }
+                        mBookAdapter.addBooks(snapshot.books);
+                        showQuery(snapshot.query);
+                    }
+                });
+            }
+        });
+    }
+
+    private void runDeferredStartupWork(final BookStore bookStore, boolean isColdStart) {
+        // Keep the local book store within its age and size limits, once per app start
+        if (isColdStart) {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    bookStore.evict();
+                }
+            });
+        }
+
+        // If there is no network connection, display error until the user searches for something
+        if (!hasInternetConnection()) {
+            // First, hide loading indicator so error message will be visible
             mLoadProgressBar.setVisibility(ProgressBar.GONE);
 
-            // Set empty state text to display "No books found."
-            mEmptyStateTextView.setText(R.string.no_books_found);
+            // Update empty state with no connection error message
+            mEmptyStateTextView.setText(R.string.no_internet);
+        }
+    }
 
-            // If user search query has changed, clear list of books in adapter from old data
-            if (isSearchQueryChanged) {
-                mBookAdapter.clear();
+    // Runs the task on the main thread after the next frame has been drawn
+    private void runAfterNextFrame(final Runnable task) {
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Posted from the pre-draw pass, it runs once the frame has been drawn
+                decorView.post(task);
+                return true;
             }
+        });
+    }
 
-            // If there is a valid list of {@link Book}s, then add them to the adapter's
-            // data set. This will trigger the ListView to update.
-            if (books != null && !books.isEmpty()) {
-                mBookAdapter.addAll(books);
-            }
+    // Logs and records the time since the start of the process. The log line is read by
+    // benchmark/startup.sh.
+    private void reportStartupTime(Metrics.Stage stage, String label) {
+        long millis = SystemClock.uptimeMillis() - mStartUptimeMillis;
+        Metrics.getInstance().record(stage, TimeUnit.MILLISECONDS.toMicros(millis));
+        Log.i(LOG_TAG, "Startup: " + label + " in " + millis + " ms");
+    }
 
+    // Creates decoder downsampling thumbnails to the size of the book image view.
+    // Low-RAM devices get thumbnails in the 16-bit pixel format using half the memory.
+    private ThumbnailDecoder createThumbnailDecoder(ThumbnailCache thumbnailCache) {
+        Bitmap.Config config = Bitmap.Config.ARGB_8888;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            ActivityManager activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+            if (activityManager.isLowRamDevice()) {
+                config = Bitmap.Config.RGB_565;
+            }
         }
+        return new ThumbnailDecoder(
+                getResources().getDimensionPixelSize(R.dimen.book_image_width),
+                getResources().getDimensionPixelSize(R.dimen.book_image_height),
+                config,
+                thumbnailCache.getBitmapPool());
     }
 
     // Internal method that checks if there is a network connection on the user's phone
@@ -253,31 +788,12 @@ public class MainActivity extends AppCompatActivity {
         return networkInfo != null && networkInfo.isConnected();
     }
 
-    private String buildBookLoadUrlString(String userQueryText) {
-        SharedPreferences sharePrefs = PreferenceManager.getDefaultSharedPreferences(MainActivity.this);
-        String orderBy = sharePrefs.getString(
-                getString(R.string.settings_order_by_key),
-                getString(R.string.settings_order_by_default)
-        );
-
-        boolean showOnlyFreeEBooks = sharePrefs.getBoolean(
-                getString(R.string.settings_only_free_ebooks_key), false);
-
-        Uri baseUri = Uri.parse(REQUEST_URL_BASE);
-        Uri.Builder uriBuilder = baseUri.buildUpon();
-
-        uriBuilder.appendQueryParameter("q", userQueryText);
-        uriBuilder.appendQueryParameter("maxResults", String.valueOf(BOOK_LOAD_PORTION));
-        uriBuilder.appendQueryParameter("orderBy", orderBy);
-        uriBuilder.appendQueryParameter("startIndex", String.valueOf(bookLoadStartIndex));
-
-        if (showOnlyFreeEBooks) {
-            uriBuilder.appendQueryParameter("filter", "free-ebooks");
-        }
+    private String buildBookLoadUrlString(String userQueryText, int startIndex, int pageSize) {
+        String url = SearchSettings.buildPageUrl(this, userQueryText, startIndex, pageSize);
 
-        Log.i(LOG_TAG, "URL to fetch books data = " + uriBuilder.toString());
+        Log.i(LOG_TAG, "URL to fetch books data = " + url);
 
-        return uriBuilder.toString();
+        return url;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+package com.example.android.booklisting;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the memory retained by the loaded books and the decoded thumbnails within a budget,
+ * and releases it when the system runs low on memory. The budget is a percentage of the maximum
+ * heap size set at build time, halved on low-RAM devices.
+ * <p>
+ * Memory is held by consumers, which report the bytes they retain and release what can be loaded
+ * again when asked to, e.g. the thumbnails of rows off the screen, which are decoded again from
+ * the disk cache when their rows are bound. Consumers are trimmed in the order they were added,
+ * on the main thread, so they must be safe to use from it.
+ */
+final class MemoryGovernor implements ComponentCallbacks2, Metrics.CounterSource {
+
+    /** Holder of memory which can be trimmed */
+    interface Consumer {
+        /**
+         * Return the approximate number of bytes retained.
+         */
+        long getRetainedBytes();
+
+        /**
+         * Release memory which can be loaded again until at most the given number of bytes
+         * is retained, or as close to it as possible.
+         */
+        void trimTo(long maxBytes);
+    }
+
+    private static final String LOG_TAG = MemoryGovernor.class.getSimpleName();
+
+    private static MemoryGovernor sInstance;
+
+    private final long mBudgetBytes;
+
+    // Consumers may register from the background threads which create them
+    private final List<Consumer> mConsumers = new CopyOnWriteArrayList<>();
+
+    /** Bytes retained by the consumers when they were last counted, read by the counters */
+    private final AtomicLong mRetainedBytes = new AtomicLong();
+
+    private final AtomicLong mBudgetTrims = new AtomicLong();
+    private final AtomicLong mPressureTrims = new AtomicLong();
+
+    static synchronized MemoryGovernor getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new MemoryGovernor(appContext);
+            appContext.registerComponentCallbacks(sInstance);
+            Metrics.getInstance().addCounterSource(sInstance);
+        }
+        return sInstance;
+    }
+
+    private MemoryGovernor(Context context) {
+        int budgetPercent = BuildConfig.MEMORY_BUDGET_PERCENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            if (activityManager.isLowRamDevice()) {
+                budgetPercent /= 2;
+            }
+        }
+        mBudgetBytes = Runtime.getRuntime().maxMemory() / 100 * budgetPercent;
+    }
+
+    /**
+     * Return the number of bytes the consumers may retain together.
+     */
+    long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    void addConsumer(Consumer consumer) {
+        mConsumers.add(consumer);
+    }
+
+    void removeConsumer(Consumer consumer) {
+        mConsumers.remove(consumer);
+    }
+
+    /**
+     * Trim the consumers if they retain more than the budget together.
+     * Called after they have retained more memory, e.g. a page of books or a thumbnail.
+     */
+    void enforceBudget() {
+        long excessBytes = countRetainedBytes() - mBudgetBytes;
+        if (excessBytes <= 0) {
+            return;
+        }
+        mBudgetTrims.incrementAndGet();
+        for (Consumer consumer : mConsumers) {
+            long retainedBytes = consumer.getRetainedBytes();
+            consumer.trimTo(Math.max(0, retainedBytes - excessBytes));
+            excessBytes -= retainedBytes - consumer.getRetainedBytes();
+            if (excessBytes <= 0) {
+                break;
+            }
+        }
+        countRetainedBytes();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // The levels of a hidden UI are above those of a running app
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            // Nothing is shown, or the system is about to kill background processes: whatever
+            // can be loaded again goes. Rows on the screen keep their bitmaps in their image views.
+            trimAll(0);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimAll(0.25f);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            trimAll(0.5f);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimAll(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    // Trims every consumer to the given part of the memory it retains
+    private void trimAll(float keptFraction) {
+        mPressureTrims.incrementAndGet();
+        long retainedBytes = countRetainedBytes();
+        for (Consumer consumer : mConsumers) {
+            consumer.trimTo((long) (consumer.getRetainedBytes() * keptFraction));
+        }
+        Log.i(LOG_TAG, "Trimmed memory from " + retainedBytes + " to " + countRetainedBytes() + " bytes");
+    }
+
+    private long countRetainedBytes() {
+        long retainedBytes = 0;
+        for (Consumer consumer : mConsumers) {
+            retainedBytes += consumer.getRetainedBytes();
+        }
+        mRetainedBytes.set(retainedBytes);
+        return retainedBytes;
+    }
+
+    @Override
+    public void readCounters(Map<String, Long> counters) {
+        counters.put("memory.budget_bytes", mBudgetBytes);
+        counters.put("memory.retained_bytes", mRetainedBytes.get());
+        counters.put("memory.budget_trims", mBudgetTrims.get());
+        counters.put("memory.pressure_trims", mPressureTrims.get());
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.example.android.booklisting;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings and counters of the stages of loading books and thumbnails, kept for the whole
+ * process. Recording a timing costs two clock reads and a few atomic increments, so the
+ * instrumentation stays enabled in release builds. The data is shown by {@link MetricsActivity}.
+ */
+final class Metrics implements HttpClient.RequestListener {
+
+    /** Timed stages of the load pipeline */
+    enum Stage {
+        /** DNS lookup, connection, TLS handshake and server time, until the response headers arrive */
+        HTTP_HEADERS,
+        /** Whole HTTP request, including the body download */
+        HTTP_TOTAL,
+        /** Parsing of a volume search response. For network responses it includes the body download */
+        PARSE,
+        /** Time a page request waits in the loader queue before it starts */
+        PAGE_QUEUE,
+        /** Page request from being queued until its books are delivered to the main thread */
+        PAGE_LOAD,
+        /** Thumbnail from being queued until it is decoded, whether from disk or network */
+        THUMBNAIL_LOAD,
+        /** Decoding of a downloaded thumbnail into a bitmap */
+        THUMBNAIL_DECODE,
+        /** Binding of a book to a row of the list */
+        BIND,
+        /** Process start until the first frame of the main screen has been drawn */
+        STARTUP_FIRST_FRAME,
+        /** Process start until the first books have been drawn, e.g. those of the last session */
+        STARTUP_FIRST_CONTENT
+    }
+
+    /** Component whose own counters are included in the metrics */
+    interface CounterSource {
+        void readCounters(Map<String, Long> counters);
+    }
+
+    static final String COUNTER_HTTP_REQUESTS = "http.requests";
+    static final String COUNTER_HTTP_FAILURES = "http.failures";
+    static final String COUNTER_HTTP_BYTES_IN = "http.bytes_in";
+    static final String COUNTER_API_RETRIES = "api.retries";
+    static final String COUNTER_API_REJECTED = "api.rejected_by_circuit_breaker";
+    static final String COUNTER_DUPLICATE_BOOKS = "merge.duplicate_books";
+    static final String COUNTER_SYNC_PAGES = "sync.pages";
+    static final String COUNTER_SYNC_THUMBNAILS = "sync.thumbnails";
+
+    private static final Metrics sInstance = new Metrics();
+
+    private final Map<Stage, Histogram> mHistograms = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, AtomicLong> mCounters = new ConcurrentHashMap<>();
+
+    private final List<CounterSource> mCounterSources = new CopyOnWriteArrayList<>();
+
+    private Metrics() {
+        for (Stage stage : Stage.values()) {
+            mHistograms.put(stage, new Histogram());
+        }
+    }
+
+    static Metrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Return the start time to pass to {@link #recordSince(Stage, long)}.
+     */
+    static long startTimer() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the time elapsed since the given start time as a duration of the stage.
+     */
+    void recordSince(Stage stage, long startNanos) {
+        record(stage, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    void record(Stage stage, long micros) {
+        mHistograms.get(stage).record(micros);
+    }
+
+    void increment(String counter, long delta) {
+        AtomicLong value = mCounters.get(counter);
+        if (value == null) {
+            value = new AtomicLong();
+            AtomicLong existing = mCounters.putIfAbsent(counter, value);
+            if (existing != null) {
+                value = existing;
+            }
+        }
+        value.addAndGet(delta);
+    }
+
+    void addCounterSource(CounterSource counterSource) {
+        mCounterSources.add(counterSource);
+    }
+
+    Histogram getHistogram(Stage stage) {
+        return mHistograms.get(stage);
+    }
+
+    /**
+     * Return the current values of all counters, sorted by name.
+     */
+    Map<String, Long> getCounters() {
+        Map<String, Long> counters = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> counter : mCounters.entrySet()) {
+            counters.put(counter.getKey(), counter.getValue().get());
+        }
+        for (CounterSource counterSource : mCounterSources) {
+            counterSource.readCounters(counters);
+        }
+        return counters;
+    }
+
+    @Override
+    public void onRequestFinished(URL url, int responseCode, long headersMillis, long totalMillis,
+                                  long bytesReceived) {
+        increment(COUNTER_HTTP_REQUESTS, 1);
+        if (responseCode < 0) {
+            increment(COUNTER_HTTP_FAILURES, 1);
+            return;
+        }
+        increment(COUNTER_HTTP_BYTES_IN, bytesReceived);
+        record(Stage.HTTP_HEADERS, TimeUnit.MILLISECONDS.toMicros(headersMillis));
+        record(Stage.HTTP_TOTAL, TimeUnit.MILLISECONDS.toMicros(totalMillis));
+    }
+
+    /**
+     * Return all histograms and counters as a JSON object.
+     */
+    String toJson() {
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+        writer.setIndent("  ");
+        try {
+            writer.beginObject();
+            writer.name("timestamp").value(System.currentTimeMillis());
+            writer.name("stages").beginObject();
+            for (Stage stage : Stage.values()) {
+                Histogram histogram = mHistograms.get(stage);
+                writer.name(stage.name().toLowerCase(Locale.US)).beginObject()
+                        .name("count").value(histogram.getCount())
+                        .name("mean_us").value(histogram.getMeanMicros())
+                        .name("p50_us").value(histogram.getPercentileMicros(50))
+                        .name("p90_us").value(histogram.getPercentileMicros(90))
+                        .name("p99_us").value(histogram.getPercentileMicros(99))
+                        .name("max_us").value(histogram.getMaxMicros())
+                        .endObject();
+            }
+            writer.endObject();
+            writer.name("counters").beginObject();
+            for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+                writer.name(counter.getKey()).value(counter.getValue());
+            }
+            writer.endObject();
+            writer.endObject();
+            writer.close();
+        } catch (IOException e) {
+            // Writing to a string doesn't fail
+            throw new IllegalStateException(e);
+        }
+        return json.toString();
+    }
+
+}
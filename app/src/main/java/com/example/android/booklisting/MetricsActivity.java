@@ -0,0 +1,75 @@
+package com.example.android.booklisting;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Debug screen showing the timings of the load stages and the counters collected by {@link Metrics}.
+ * The metrics can also be shared as JSON.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    private TextView mMetricsTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.metrics_activity);
+        mMetricsTextView = (TextView) findViewById(R.id.metrics_text);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+        if (id == R.id.action_refresh_metrics) {
+            showMetrics();
+            return true;
+        } else if (id == R.id.action_share_metrics) {
+            Intent shareIntent = new Intent(Intent.ACTION_SEND);
+            shareIntent.setType("application/json");
+            shareIntent.putExtra(Intent.EXTRA_TEXT, Metrics.getInstance().toJson());
+            startActivity(Intent.createChooser(shareIntent, getString(R.string.metrics_share_title)));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void showMetrics() {
+        Metrics metrics = Metrics.getInstance();
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.US, "%-17s%7s%9s%9s%9s%9s%n",
+                "stage (ms)", "count", "p50", "p90", "p99", "max"));
+        for (Metrics.Stage stage : Metrics.Stage.values()) {
+            Histogram histogram = metrics.getHistogram(stage);
+            text.append(String.format(Locale.US, "%-17s%7d%9.1f%9.1f%9.1f%9.1f%n",
+                    stage.name().toLowerCase(Locale.US), histogram.getCount(),
+                    histogram.getPercentileMicros(50) / 1000f, histogram.getPercentileMicros(90) / 1000f,
+                    histogram.getPercentileMicros(99) / 1000f, histogram.getMaxMicros() / 1000f));
+        }
+        text.append('\n');
+        for (Map.Entry<String, Long> counter : metrics.getCounters().entrySet()) {
+            text.append(String.format(Locale.US, "%-34s%12d%n", counter.getKey(), counter.getValue()));
+        }
+        mMetricsTextView.setText(text);
+    }
+
+}
@@ -0,0 +1,311 @@
+package com.example.android.booklisting;
+
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Keeps pages of search results loading ahead of the scroll position, so the user can fling
+ * through the list without reaching its end while the next page is still loading.
+ * The faster the list is scrolled, the more rows are requested ahead and the bigger the pages
+ * (up to the API maximum of {@link #MAX_PAGE_SIZE}). Pages are delivered in list order even if
+ * they finish loading in a different order, and no pages are requested past the total number
+ * of items reported by the server. The delivered pages are merged into the result set of the query
+ * by {@link ResultMerger}, so books returned again by a later page are not delivered twice, and
+ * requests stop once pages keep returning only books which were already delivered.
+ */
+final class PagePrefetcher {
+
+    /** Builds the request URLs and receives the loaded pages on the main thread */
+    interface Listener {
+        String buildPageUrl(String query, int startIndex, int pageSize);
+
+        /**
+         * Called for every page in list order with the books it added to the result set.
+         * The page is null if it couldn't be loaded, in which case it is retried when the list
+         * is scrolled again.
+         */
+        void onPageLoaded(BookPage page, boolean isFirstPage);
+
+        /**
+         * Called when a page returned books already delivered with changed content,
+         * which replace the delivered ones.
+         */
+        void onBooksUpdated(List<Book> books);
+    }
+
+    /** Default number of books in the first page and the smallest number of books per request */
+    static final int DEFAULT_MIN_PAGE_SIZE = 10;
+
+    /** Maximum number of books the Google Books API returns per request */
+    static final int MAX_PAGE_SIZE = 40;
+
+    /** Minimum number of rows to have below the last visible one, loaded or being loaded */
+    static final int MIN_ROWS_AHEAD = 5;
+
+    /** Rows needed for this much time of scrolling at the current speed are loaded ahead */
+    private static final long LOOKAHEAD_MILLIS = 3000;
+
+    /** Maximum number of pages being loaded at the same time */
+    private static final int MAX_PAGES_IN_FLIGHT = 3;
+
+    /** Weight of the newest measurement in the smoothed scroll velocity */
+    private static final float VELOCITY_SMOOTHING = 0.3f;
+
+    /** Number of pages in a row adding no new books after which there are considered to be no more */
+    private static final int MAX_PAGES_WITHOUT_NEW_BOOKS = 2;
+
+    private final BookLoader mBookLoader;
+
+    private final Listener mListener;
+
+    private String mQuery;
+
+    /** Number of books in the first page and the smallest number of books per request */
+    private int mMinPageSize = DEFAULT_MIN_PAGE_SIZE;
+
+    /** Pages requested but not delivered yet, in list order */
+    private final ArrayDeque<PendingPage> mPendingPages = new ArrayDeque<>();
+
+    /** Books delivered for the query */
+    private final ResultMerger mMerger = new ResultMerger();
+
+    /** Number of the last delivered pages which added no new books */
+    private int mPagesWithoutNewBooks;
+
+    /** Index of the first book of the next page to request */
+    private int mNextStartIndex;
+
+    private int mTotalItems = BookPage.UNKNOWN_TOTAL_ITEMS;
+
+    /** True when the server returned an empty page, so there are no more results */
+    private boolean mExhausted;
+
+    private int mLastFirstVisibleItem;
+
+    private long mLastScrollTime;
+
+    /** Smoothed scroll velocity in rows per second */
+    private float mRowsPerSecond;
+
+    PagePrefetcher(BookLoader bookLoader, Listener listener) {
+        mBookLoader = bookLoader;
+        mListener = listener;
+    }
+
+    /**
+     * Set the number of books in the first page and the smallest number of books per request,
+     * up to {@link #MAX_PAGE_SIZE}. It is used from the next query on.
+     */
+    void setMinPageSize(int minPageSize) {
+        mMinPageSize = Math.max(1, Math.min(MAX_PAGE_SIZE, minPageSize));
+    }
+
+    /**
+     * Cancel loading of the pages of the previous query and start loading the first page
+     * of the given one.
+     */
+    void startQuery(String query) {
+        startQuery(query, mMinPageSize);
+    }
+
+    /**
+     * Cancel loading of the pages of the previous query and start loading the given one with
+     * a first page of at least the given size, e.g. to fill the rows already on the screen
+     * when the query is loaded again with other settings.
+     */
+    void startQuery(String query, int firstPageSize) {
+        mBookLoader.startNewGeneration();
+        mQuery = query;
+        mPendingPages.clear();
+        mNextStartIndex = 0;
+        mTotalItems = BookPage.UNKNOWN_TOTAL_ITEMS;
+        mExhausted = false;
+        mRowsPerSecond = 0;
+        mMerger.clear();
+        mPagesWithoutNewBooks = 0;
+        requestPage(Math.min(MAX_PAGE_SIZE, Math.max(mMinPageSize, firstPageSize)),
+                BookLoader.PRIORITY_QUERY);
+    }
+
+    /**
+     * Return the query whose pages are being loaded, or null if no query has been started.
+     */
+    String getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Update the scroll velocity and request more pages if the rows loaded and being loaded
+     * below the visible ones won't last for {@link #LOOKAHEAD_MILLIS} of scrolling.
+     */
+    void onScroll(int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        updateVelocity(firstVisibleItem);
+        if (mQuery == null || totalItemCount == 0) {
+            return;
+        }
+        retryFailedPages();
+
+        int loadedRowsAhead = totalItemCount - (firstVisibleItem + visibleItemCount);
+        int rowsAhead = loadedRowsAhead;
+        for (PendingPage pendingPage : mPendingPages) {
+            rowsAhead += pendingPage.pageSize;
+        }
+        int wantedRowsAhead = Math.max(MIN_ROWS_AHEAD,
+                Math.round(mRowsPerSecond * LOOKAHEAD_MILLIS / 1000));
+
+        while (rowsAhead < wantedRowsAhead && hasMorePages()
+                && mPendingPages.size() < MAX_PAGES_IN_FLIGHT) {
+            int pageSize = Math.min(MAX_PAGE_SIZE, Math.max(mMinPageSize, wantedRowsAhead - rowsAhead));
+            // The page the user is about to see goes before pages which are only loaded ahead
+            int priority = mPendingPages.isEmpty() && loadedRowsAhead <= MIN_ROWS_AHEAD
+                    ? BookLoader.PRIORITY_PAGE : BookLoader.PRIORITY_PREFETCH;
+            requestPage(pageSize, priority);
+            rowsAhead += pageSize;
+        }
+    }
+
+    /**
+     * Request the next page if none is loading, when none of the delivered books are shown,
+     * e.g. because they are all filtered out, so there are no rows to scroll for more.
+     * Return true if a page is loading.
+     */
+    boolean onNoRowsShown() {
+        if (mQuery == null) {
+            return false;
+        }
+        retryFailedPages();
+        if (mPendingPages.isEmpty() && hasMorePages()) {
+            requestPage(MAX_PAGE_SIZE, BookLoader.PRIORITY_PAGE);
+        }
+        return !mPendingPages.isEmpty();
+    }
+
+    /**
+     * Reset the scroll velocity when the list stops scrolling.
+     */
+    void onScrollIdle() {
+        mRowsPerSecond = 0;
+    }
+
+    private boolean hasMorePages() {
+        return !mExhausted
+                && (mTotalItems == BookPage.UNKNOWN_TOTAL_ITEMS || mNextStartIndex < mTotalItems);
+    }
+
+    private void updateVelocity(int firstVisibleItem) {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - mLastScrollTime;
+        if (elapsed > 0 && mLastScrollTime > 0) {
+            float rowsPerSecond = Math.abs(firstVisibleItem - mLastFirstVisibleItem) * 1000f / elapsed;
+            mRowsPerSecond += VELOCITY_SMOOTHING * (rowsPerSecond - mRowsPerSecond);
+        }
+        mLastFirstVisibleItem = firstVisibleItem;
+        mLastScrollTime = now;
+    }
+
+    private void requestPage(int pageSize, int priority) {
+        PendingPage pendingPage = new PendingPage(mNextStartIndex, pageSize, mNextStartIndex == 0);
+        mPendingPages.addLast(pendingPage);
+        mNextStartIndex += pageSize;
+        load(pendingPage, priority);
+    }
+
+    private void retryFailedPages() {
+        for (PendingPage pendingPage : mPendingPages) {
+            if (pendingPage.failed) {
+                pendingPage.failed = false;
+                load(pendingPage, BookLoader.PRIORITY_PAGE);
+            }
+        }
+    }
+
+    private void load(final PendingPage pendingPage, int priority) {
+        mBookLoader.load(mListener.buildPageUrl(mQuery, pendingPage.startIndex, pendingPage.pageSize),
+                priority, new BookLoader.Callback() {
+                    @Override
+                    public void onBooksLoaded(BookPage page) {
+                        onPageLoaded(pendingPage, page);
+                    }
+                });
+    }
+
+    private void onPageLoaded(PendingPage pendingPage, BookPage page) {
+        if (page == null) {
+            pendingPage.failed = true;
+        } else {
+            pendingPage.page = page;
+            if (page.getTotalItems() != BookPage.UNKNOWN_TOTAL_ITEMS) {
+                mTotalItems = page.getTotalItems();
+            }
+            if (page.getBooks().isEmpty()) {
+                mExhausted = true;
+            }
+        }
+
+        // Deliver the loaded pages from the top of the queue, stopping at the first missing one
+        while (!mPendingPages.isEmpty()) {
+            PendingPage first = mPendingPages.peekFirst();
+            if (first.page != null) {
+                mPendingPages.removeFirst();
+                deliver(first);
+            } else {
+                if (first.failed && first == pendingPage) {
+                    if (first.isFirstPage) {
+                        // Nothing is shown for the query, so it can be started again
+                        mQuery = null;
+                        mPendingPages.clear();
+                    }
+                    mListener.onPageLoaded(null, first.isFirstPage);
+                }
+                break;
+            }
+        }
+    }
+
+    // Merges the page into the result set and passes on the books it added and updated
+    private void deliver(PendingPage pendingPage) {
+        BookPage page = pendingPage.page;
+        ResultMerger.Result result = mMerger.merge(page.getBooks());
+        if (result.duplicates > 0) {
+            Metrics.getInstance().increment(Metrics.COUNTER_DUPLICATE_BOOKS, result.duplicates);
+        }
+
+        // Pages which only repeat delivered books mean the server has run out of new results,
+        // even if its total number of items says otherwise
+        if (!result.added.isEmpty()) {
+            mPagesWithoutNewBooks = 0;
+        } else if (!page.getBooks().isEmpty() && ++mPagesWithoutNewBooks >= MAX_PAGES_WITHOUT_NEW_BOOKS) {
+            mExhausted = true;
+        }
+
+        mListener.onPageLoaded(new BookPage(result.added, page.getTotalItems()), pendingPage.isFirstPage);
+        if (!result.updated.isEmpty()) {
+            mListener.onBooksUpdated(result.updated);
+        }
+    }
+
+    /**
+     * Page which has been requested and is waiting for its turn to be delivered.
+     */
+    private static final class PendingPage {
+
+        final int startIndex;
+
+        final int pageSize;
+
+        final boolean isFirstPage;
+
+        BookPage page;
+
+        boolean failed;
+
+        PendingPage(int startIndex, int pageSize, boolean isFirstPage) {
+            this.startIndex = startIndex;
+            this.pageSize = pageSize;
+            this.isFirstPage = isFirstPage;
+        }
+    }
+
+}
@@ -1,23 +1,22 @@
 package com.example.android.booklisting;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Helper methods related to requesting and receiving books data from Google Books API.
@@ -27,8 +26,29 @@ public final class QueryUtils {
     /** Tag for the log messages */
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
-    /** Delimiter for book authors if the book has more than one author */
-    private static final String BOOK_AUTHORS_DELIMITER = ", ";
+    /** Response code of rate limited requests, missing from {@link HttpURLConnection} */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /** Maximum number of attempts of a search request failing with a transient error */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** Upper bound of the delay before the first retry, doubled for every next one */
+    private static final long BASE_RETRY_DELAY_MILLIS = 500;
+
+    /** Longest delay to wait before a retry. Requests asking for a longer one are not retried. */
+    private static final long MAX_RETRY_DELAY_MILLIS = 8000;
+
+    /** Breaker for the Google Books API, shared by all search requests */
+    private static final CircuitBreaker sCircuitBreaker = new CircuitBreaker();
+
+    private static final RetryPolicy sRetryPolicy = new RetryPolicy(MAX_ATTEMPTS,
+            BASE_RETRY_DELAY_MILLIS, MAX_RETRY_DELAY_MILLIS, new Random());
+
+    static {
+        // Set at build time, e.g. longer for a slow test server
+        HttpClient.getDefault().setTimeouts(BuildConfig.HTTP_CONNECT_TIMEOUT_MILLIS,
+                BuildConfig.HTTP_READ_TIMEOUT_MILLIS);
+    }
 
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
@@ -39,30 +59,91 @@ public final class QueryUtils {
     }
 
     /**
-     * Return a list of {@link Book} objects that has been built up from
-     * parsing a JSON response.
+     * Return a page of {@link Book} objects that has been built up from
+     * parsing a JSON response, or null if it couldn't be loaded. The response is taken from the given cache if it is fresh there,
+     * and the cached response is also used when the server can't be reached.
+     * Network errors, server errors and rate limiting are retried a few times with a growing delay,
+     * and while the API keeps failing, requests are not made at all until it has had time to recover.
      */
-    public static ArrayList<Book> fetchBooks(String requestUrl) {
-
-        // Create URL object
-        URL url = createUrl(requestUrl);
+    public static BookPage fetchBooks(String requestUrl, VolumeResponseCache cache) {
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
-        try {
-            jsonResponse = makeHttpRequest(url);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error closing input stream", e);
+        VolumeResponseCache.Entry cachedResponse = cache.get(requestUrl);
+        if (cachedResponse != null && cachedResponse.isFresh()) {
+            cache.recordHit();
+            return parseCachedResponse(cachedResponse);
         }
 
-        ArrayList<Book> books = extractBooksFromJson(jsonResponse);
+        // A response kept by the background sync stays fresh as long as it was, so a saved query
+        // browsed by the user still opens without network the next time
+        long maxAgeMillis = cachedResponse != null
+                ? cachedResponse.maxAgeMillis : VolumeResponseCache.TTL_MILLIS;
+        BookPage page = loadBooks(requestUrl, cachedResponse, cache, maxAgeMillis);
 
-        // Download image and set it to the Book object
-        for (Book book : books) {
-            book.setBookImageBitmap(downloadBookImage(book.getThumbnailUrl()));
+        // Fall back to the outdated response if there is no connection to the server
+        if (page == null && cachedResponse != null) {
+            cache.recordStaleHit();
+            return parseCachedResponse(cachedResponse);
         }
 
-        return books;
+        // Thumbnails are not downloaded here, so the page can be shown as soon as it is parsed.
+        // They are loaded separately by {@link ThumbnailLoader}.
+        return page;
+    }
+
+    /**
+     * Load the page of books from the server even if the cached response is fresh, and store it
+     * in the cache to be served without network for {@link VolumeResponseCache#SYNCED_TTL_MILLIS}.
+     * Return the page, or null if it couldn't be loaded. Used by the background sync of saved queries.
+     */
+    static BookPage refreshBooks(String requestUrl, VolumeResponseCache cache) {
+        return loadBooks(requestUrl, cache.get(requestUrl), cache, VolumeResponseCache.SYNCED_TTL_MILLIS);
+    }
+
+    // Requests the page from the server, retrying transient failures, and stores the response in the
+    // cache with the given freshness time. Returns null if the page couldn't be loaded.
+    private static BookPage loadBooks(String requestUrl, VolumeResponseCache.Entry cachedResponse,
+                                      VolumeResponseCache cache, long maxAgeMillis) {
+        // Create URL object
+        URL url = createUrl(requestUrl);
+
+        // Perform HTTP request to the URL and parse the JSON response while it is being received
+        BookPage page = null;
+        for (int attempt = 1; ; attempt++) {
+            if (!sCircuitBreaker.allowRequest()) {
+                Metrics.getInstance().increment(Metrics.COUNTER_API_REJECTED, 1);
+                break;
+            }
+            long retryDelayMillis;
+            boolean succeeded = false;
+            try {
+                page = makeHttpRequest(url, requestUrl, cachedResponse, cache, maxAgeMillis);
+                succeeded = true;
+                break;
+            } catch (TransientHttpException e) {
+                Log.e(LOG_TAG, "Error response code: " + e.responseCode);
+                retryDelayMillis = sRetryPolicy.getDelayMillis(attempt, e.retryAfterMillis);
+                if (e.retryAfterMillis > MAX_RETRY_DELAY_MILLIS) {
+                    // Rate limited for longer than a retry may wait, so nobody should ask before then
+                    sCircuitBreaker.openFor(e.retryAfterMillis);
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem retrieving the book JSON results.", e);
+                retryDelayMillis = sRetryPolicy.getDelayMillis(attempt, 0);
+            } finally {
+                // Also reported when a runtime exception escapes, so a trial request can't leave
+                // the circuit rejecting every request
+                if (succeeded) {
+                    sCircuitBreaker.onSuccess();
+                } else {
+                    sCircuitBreaker.onFailure();
+                }
+            }
+            if (retryDelayMillis == RetryPolicy.NO_RETRY || !sleep(retryDelayMillis)) {
+                break;
+            }
+            Metrics.getInstance().increment(Metrics.COUNTER_API_RETRIES, 1);
+        }
+        return page;
     }
 
     /**
@@ -79,136 +160,257 @@ public final class QueryUtils {
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Make an HTTP request to the given URL and return the page of books parsed from the response,
+     * or null if the server rejected the request. If there is a cached response,
+     * the server is asked to return the body only if it has changed. New responses are stored in the cache
+     * to be used without asking the server for the given time.
+     *
+     * @throws TransientHttpException if the server is unavailable or rate limiting the requests
+     * @throws IOException            if the server couldn't be reached or the response couldn't be read
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
-
+    private static BookPage makeHttpRequest(URL url, String requestUrl,
+                                            VolumeResponseCache.Entry cachedResponse,
+                                            VolumeResponseCache cache,
+                                            long maxAgeMillis) throws IOException {
         // If the URL is null, then return early.
         if (url == null) {
-            return jsonResponse;
+            return new BookPage(new ArrayList<Book>(), 0);
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        Map<String, String> headers = new HashMap<>();
+        if (cachedResponse != null) {
+            if (cachedResponse.eTag != null) {
+                headers.put("If-None-Match", cachedResponse.eTag);
+            }
+            if (cachedResponse.lastModified != null) {
+                headers.put("If-Modified-Since", cachedResponse.lastModified);
+            }
+        }
+
+        HttpClient.Response response = null;
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+            response = HttpClient.getDefault().get(url, headers);
+
+            int responseCode = response.getCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cachedResponse != null) {
+                // The cached response is still valid, so it's good for another TTL period
+                cache.recordRevalidatedHit();
+                cache.put(requestUrl, new VolumeResponseCache.Entry(cachedResponse.body,
+                        cachedResponse.eTag, cachedResponse.lastModified, System.currentTimeMillis(),
+                        maxAgeMillis));
+                return parseCachedResponse(cachedResponse);
+            }
 
             // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            // then parse the response straight from the input stream.
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                final ArrayList<Book> books = new ArrayList<>();
+                // Keep a copy of the received bytes while parsing to store them in the cache
+                ByteArrayOutputStream responseCopy = new ByteArrayOutputStream();
+                InputStream inputStream = new TeeInputStream(response.getBody(), responseCopy);
+                long parseStart = Metrics.startTimer();
+                int totalItems = BookJsonParser.parse(inputStream, new BookJsonParser.BookHandler() {
+                    @Override
+                    public void onBook(Book book) {
+                        books.add(book);
+                    }
+                });
+                drain(inputStream);
+                Metrics.getInstance().recordSince(Metrics.Stage.PARSE, parseStart);
+                cache.put(requestUrl, new VolumeResponseCache.Entry(responseCopy.toByteArray(),
+                        response.getHeader("ETag"),
+                        response.getHeader("Last-Modified"),
+                        System.currentTimeMillis(),
+                        maxAgeMillis));
+                return new BookPage(books, totalItems);
+            } else if (responseCode == HTTP_TOO_MANY_REQUESTS
+                    || responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                throw new TransientHttpException(responseCode, getRetryAfterMillis(response));
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
+                return null;
             }
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the book JSON results.", e);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (inputStream != null) {
-                inputStream.close();
+            // Closing the response returns its connection to the pool for the next page
+            if (response != null) {
+                response.close();
             }
         }
-        return jsonResponse;
     }
 
-    /**
-     * Convert the {@link InputStream} into a String which contains the
-     * whole JSON response from the server.
-     */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
-            }
+    // Returns the delay requested by the Retry-After header in seconds or as a date, or 0 if there is none
+    private static long getRetryAfterMillis(HttpClient.Response response) {
+        String retryAfter = response.getHeader("Retry-After");
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            long retryAt = response.getHeaderDate("Retry-After");
+            return retryAt > 0 ? Math.max(0, retryAt - System.currentTimeMillis()) : 0;
         }
-        return output.toString();
     }
 
-    private static ArrayList<Book> extractBooksFromJson(String booksJSON) {
-        // If the JSON string is empty or null, then return early.
-        if (TextUtils.isEmpty(booksJSON)) {
-            return null;
+    // Returns false if the thread was interrupted while sleeping
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
+    }
 
-        // Create an empty ArrayList that we can start adding books to
-        ArrayList<Book> books = new ArrayList<>();
-
-        // Try to parse the JSON. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
-        // Catch the exception so the app doesn't crash, and print the error message to the logs.
+    private static BookPage parseCachedResponse(VolumeResponseCache.Entry cachedResponse) {
+        final ArrayList<Book> books = new ArrayList<>();
+        int totalItems = 0;
+        long parseStart = Metrics.startTimer();
         try {
-            // build up a list of Books objects with the corresponding data.
-            JSONObject booksJSONRoot = new JSONObject(booksJSON);
-            JSONArray bookItems = booksJSONRoot.optJSONArray("items");
-            if (bookItems != null) {
-                for (int i = 0; i < bookItems.length(); i++) {
-                    JSONObject bookItem = bookItems.getJSONObject(i);
-                    JSONObject bookItemVolumeInfo = bookItem.getJSONObject("volumeInfo");
-                    String bookTitle = bookItemVolumeInfo.getString("title");
-                    String bookAuthors = null;
-                    JSONArray bookAuthorsArray = bookItemVolumeInfo.optJSONArray("authors");
-                    if (bookAuthorsArray != null) {
-                        bookAuthors = "";
-                        for (int j = 0; j < bookAuthorsArray.length(); j++) {
-                            bookAuthors += bookAuthorsArray.getString(j);
-                            if (j < (bookAuthorsArray.length() - 1)) {
-                                bookAuthors += BOOK_AUTHORS_DELIMITER;
-                            }
+            totalItems = BookJsonParser.parse(new ByteArrayInputStream(cachedResponse.body),
+                    new BookJsonParser.BookHandler() {
+                        @Override
+                        public void onBook(Book book) {
+                            books.add(book);
                         }
-                    }
-                    String bookPublishDate = null;
-                    if (bookItemVolumeInfo.has("publishedDate")) {
-                        bookPublishDate = bookItemVolumeInfo.getString("publishedDate");
-                    }
-                    String bookPreviewLink = bookItemVolumeInfo.getString("previewLink");
+                    });
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem parsing the cached book JSON results", e);
+        }
+        Metrics.getInstance().recordSince(Metrics.Stage.PARSE, parseStart);
+        return new BookPage(books, totalItems);
+    }
 
-                    String bookThumbnailUrl = null;
-                    if (bookItemVolumeInfo.has("imageLinks")) {
-                        bookThumbnailUrl = bookItemVolumeInfo.getJSONObject("imageLinks").getString("thumbnail");
-                    }
-                    books.add(new Book(bookThumbnailUrl, bookTitle, bookAuthors, bookPublishDate, bookPreviewLink, null));
-                }
+    // Read the rest of the stream, e.g. whitespace after the JSON
+    private static void drain(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (inputStream.read(buffer) != -1) {
+            // Nothing to do with the data
+        }
+    }
+
+    /**
+     * Response of the server which may succeed if the request is repeated later.
+     */
+    private static final class TransientHttpException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        final int responseCode;
+
+        /** Delay requested by the server before the next request, or 0 */
+        final long retryAfterMillis;
+
+        TransientHttpException(int responseCode, long retryAfterMillis) {
+            super("Transient HTTP error " + responseCode);
+            this.responseCode = responseCode;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+
+    /**
+     * Stream copying all bytes read from it to another stream.
+     */
+    private static final class TeeInputStream extends FilterInputStream {
+
+        private final OutputStream mCopy;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            mCopy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCopy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCopy.write(buffer, offset, read);
             }
+            return read;
+        }
 
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e("QueryUtils", "Problem parsing the book JSON results", e);
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes have to be copied too, so read them instead
+            byte[] buffer = new byte[(int) Math.min(count, 1024)];
+            int read = read(buffer, 0, buffer.length);
+            return read < 0 ? 0 : read;
         }
 
-        // Return the list of books
-        return books;
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
     }
 
-    // Download book images
-    private static Bitmap downloadBookImage(String bookImageUrl) {
+    /**
+     * Load the volume with the given lookup URL and return it, or null if it couldn't be loaded.
+     * Volume lookups are small, so they are not cached.
+     */
+    static Book fetchVolume(String requestUrl) {
+        URL url = createUrl(requestUrl);
+        if (url == null) {
+            return null;
+        }
+        HttpClient.Response response = null;
+        try {
+            response = HttpClient.getDefault().get(url, null);
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Error response code " + response.getCode() + " for volume " + requestUrl);
+                return null;
+            }
+            return BookJsonParser.parseVolume(response.getBody());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem retrieving the volume JSON result.", e);
+            return null;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Download the book image file with the given URL and return its undecoded data.
+     */
+    static byte[] downloadBookImage(String bookImageUrl) {
         // If the image load url is empty or null, then return early.
         if (TextUtils.isEmpty(bookImageUrl)) {
             return null;
         }
-        Bitmap image = null;
+        HttpClient.Response response = null;
         try {
-            InputStream in = new java.net.URL(bookImageUrl).openStream();
-            image = BitmapFactory.decodeStream(in);
-        } catch (Exception e) {
-            Log.e("Error", e.getMessage());
-            e.printStackTrace();
+            response = HttpClient.getDefault().get(new URL(bookImageUrl), null);
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Error response code " + response.getCode() + " for book image " + bookImageUrl);
+                return null;
+            }
+            InputStream in = response.getBody();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem downloading the book image " + bookImageUrl, e);
+            return null;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
         }
-        return image;
     }
 
-}
\ No newline at end of file
+}
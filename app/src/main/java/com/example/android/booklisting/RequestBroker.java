@@ -0,0 +1,237 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Entry point for all requests to the Google Books API shared by the whole app.
+ * Identical requests made while one is in progress are merged into it, so callers asking for
+ * the same page or volume at the same time share a single network fetch. Every caller gets its own future,
+ * and cancelling it doesn't cancel the request for the other callers, only for the last one.
+ */
+final class RequestBroker implements Metrics.CounterSource {
+
+    /** URL of the volumes endpoint, followed by the volume ID to look up a single volume */
+    private static final String VOLUME_URL_BASE = SearchSettings.REQUEST_URL_BASE;
+
+    /** Number of requests run at the same time */
+    private static final int WORKER_COUNT = 4;
+
+    private static RequestBroker sInstance;
+
+    private final VolumeResponseCache mResponseCache;
+
+    private final ExecutorService mExecutor;
+
+    /** Requests in progress by their key, guarded by the lock on itself */
+    private final HashMap<String, SharedRequest<?>> mInFlight = new HashMap<>();
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mMergedRequests = new AtomicLong();
+
+    static synchronized RequestBroker getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RequestBroker(VolumeResponseCache.getInstance(context));
+            Metrics.getInstance().addCounterSource(sInstance);
+        }
+        return sInstance;
+    }
+
+    private RequestBroker(VolumeResponseCache responseCache) {
+        mResponseCache = responseCache;
+        mExecutor = Executors.newFixedThreadPool(WORKER_COUNT, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "RequestBroker #" + mCount.getAndIncrement());
+            }
+        });
+    }
+
+    /**
+     * Load the page of books with the given search request URL. The result is null if
+     * the page couldn't be loaded.
+     */
+    Future<BookPage> fetchPage(final String requestUrl) {
+        return submit("page:" + VolumeResponseCache.normalizeUrl(requestUrl), new Callable<BookPage>() {
+            @Override
+            public BookPage call() {
+                return QueryUtils.fetchBooks(requestUrl, mResponseCache);
+            }
+        });
+    }
+
+    /**
+     * Load the pages with the given search request URLs, returning their futures in the same order.
+     */
+    List<Future<BookPage>> fetchPages(List<String> requestUrls) {
+        List<Future<BookPage>> pages = new ArrayList<>(requestUrls.size());
+        for (String requestUrl : requestUrls) {
+            pages.add(fetchPage(requestUrl));
+        }
+        return pages;
+    }
+
+    /**
+     * Look up the book with the given volume ID. The result is null if it couldn't be loaded.
+     */
+    Future<Book> fetchVolume(String volumeId) {
+        // The ID is encoded as a path segment, so no character of it can change the URL
+        final String requestUrl = Uri.parse(VOLUME_URL_BASE).buildUpon()
+                .appendPath(volumeId)
+                .build()
+                .toString();
+        return submit("volume:" + volumeId, new Callable<Book>() {
+            @Override
+            public Book call() {
+                return QueryUtils.fetchVolume(requestUrl);
+            }
+        });
+    }
+
+    /**
+     * Look up the books with the given volume IDs, returning their futures in the same order.
+     */
+    List<Future<Book>> fetchVolumes(List<String> volumeIds) {
+        List<Future<Book>> volumes = new ArrayList<>(volumeIds.size());
+        for (String volumeId : volumeIds) {
+            volumes.add(fetchVolume(volumeId));
+        }
+        return volumes;
+    }
+
+    @Override
+    public void readCounters(Map<String, Long> counters) {
+        counters.put("broker.requests", mRequests.get());
+        counters.put("broker.merged_requests", mMergedRequests.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Future<T> submit(String key, Callable<T> callable) {
+        mRequests.incrementAndGet();
+        SharedRequest<T> request;
+        synchronized (mInFlight) {
+            SharedRequest<?> existingRequest = mInFlight.get(key);
+            if (existingRequest != null) {
+                mMergedRequests.incrementAndGet();
+                existingRequest.mCallers++;
+                return new CallerFuture<>((SharedRequest<T>) existingRequest);
+            }
+            request = new SharedRequest<>(key, callable);
+            mInFlight.put(key, request);
+        }
+        mExecutor.execute(request);
+        return new CallerFuture<>(request);
+    }
+
+    /**
+     * Request run once for all the callers asking for the same data while it is in progress.
+     */
+    private final class SharedRequest<T> extends FutureTask<T> {
+
+        private final String mKey;
+
+        /** Callers which haven't cancelled their future, guarded by the lock on mInFlight */
+        int mCallers = 1;
+
+        SharedRequest(String key, Callable<T> callable) {
+            super(callable);
+            mKey = key;
+        }
+
+        @Override
+        protected void done() {
+            // Requests made from now on load the data again, e.g. from the response cache
+            synchronized (mInFlight) {
+                if (mInFlight.get(mKey) == this) {
+                    mInFlight.remove(mKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * View of a shared request given to one caller. Cancelling it stops the caller from waiting
+     * for the result, and cancels the request once no caller is waiting for it anymore.
+     */
+    private final class CallerFuture<T> implements Future<T> {
+
+        private final SharedRequest<T> mRequest;
+
+        private volatile boolean mCancelled;
+
+        CallerFuture(SharedRequest<T> request) {
+            mRequest = request;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (mInFlight) {
+                if (mCancelled || mRequest.isDone()) {
+                    return false;
+                }
+                mCancelled = true;
+                // Cancelled under the lock, so no new caller is merged into the cancelled request
+                if (--mRequest.mCallers == 0) {
+                    mRequest.cancel(mayInterruptIfRunning);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mCancelled || mRequest.isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            checkNotCancelled();
+            return mRequest.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            checkNotCancelled();
+            return mRequest.get(timeout, unit);
+        }
+
+        private void checkNotCancelled() {
+            if (mCancelled) {
+                throw new CancellationException();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.example.android.booklisting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Merges the pages of a search into one result set without duplicates. Paging by start index
+ * often returns books already returned by an earlier page, because the results shift between
+ * requests. Books are matched by their key in a hash map, so merging costs constant time per book,
+ * books seen before keep their first position, and a book returned again with other content
+ * replaces the earlier record.
+ * It uses no Android classes, so it can also be run and measured on a plain JVM.
+ */
+final class ResultMerger {
+
+    /** Books of the pages merged so far by key */
+    private final HashMap<String, Book> mBooks = new HashMap<>();
+
+    /**
+     * Books of one merged page.
+     */
+    static final class Result {
+
+        /** Books not seen before, in page order */
+        final List<Book> added;
+
+        /** Books seen before whose content has changed, to replace the earlier records */
+        final List<Book> updated;
+
+        /** Number of books of the page seen before, changed or not */
+        final int duplicates;
+
+        Result(List<Book> added, List<Book> updated, int duplicates) {
+            this.added = added;
+            this.updated = updated;
+            this.duplicates = duplicates;
+        }
+    }
+
+    /**
+     * Forget the merged books, e.g. for a new query.
+     */
+    void clear() {
+        mBooks.clear();
+    }
+
+    /**
+     * Merge the books of the next page into the result set.
+     */
+    Result merge(List<Book> books) {
+        List<Book> added = new ArrayList<>(books.size());
+        List<Book> updated = new ArrayList<>();
+        int duplicates = 0;
+        for (Book book : books) {
+            Book existing = mBooks.put(book.getKey(), book);
+            if (existing == null) {
+                added.add(book);
+            } else {
+                duplicates++;
+                if (!existing.hasSameContent(book)) {
+                    updated.add(book);
+                }
+            }
+        }
+        return new Result(added, updated, duplicates);
+    }
+
+    /**
+     * Return the number of distinct books merged so far.
+     */
+    int size() {
+        return mBooks.size();
+    }
+
+}
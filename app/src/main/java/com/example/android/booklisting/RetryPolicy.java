@@ -0,0 +1,59 @@
+package com.example.android.booklisting;
+
+import java.util.Random;
+
+/**
+ * Delays of the retries of a request failing with a transient error: jittered exponential
+ * backoff, a random delay up to the base delay doubled for every attempt and capped at the
+ * maximum delay, but not shorter than the delay the server asked for.
+ * Kept free of Android classes so the delays can be checked by unit tests.
+ */
+final class RetryPolicy {
+
+    /** Delay returned when the request should not be retried */
+    static final long NO_RETRY = -1;
+
+    private final int mMaxAttempts;
+
+    private final long mBaseDelayMillis;
+
+    private final long mMaxDelayMillis;
+
+    /** Source of the jitter, guarded by the lock on itself */
+    private final Random mRandom;
+
+    /**
+     * @param maxAttempts     maximum number of attempts, including the first one
+     * @param baseDelayMillis upper bound of the delay before the first retry
+     * @param maxDelayMillis  longest delay to wait before a retry. Requests asking for a longer
+     *                        one are not retried.
+     * @param random          source of the jitter
+     */
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Random random) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mRandom = random;
+    }
+
+    /**
+     * Return the delay to wait before the next attempt after the given one has failed,
+     * or {@link #NO_RETRY} if it was the last attempt or the server asked to wait too long.
+     *
+     * @param attempt          number of the failed attempt, starting at 1
+     * @param retryAfterMillis delay asked for by the server, or 0 if there is none
+     */
+    long getDelayMillis(int attempt, long retryAfterMillis) {
+        if (attempt >= mMaxAttempts || retryAfterMillis > mMaxDelayMillis) {
+            return NO_RETRY;
+        }
+        // The shift is bounded, so many attempts can't overflow the delay
+        long maxDelay = Math.min(mBaseDelayMillis << Math.min(attempt - 1, 30), mMaxDelayMillis);
+        long delay;
+        synchronized (mRandom) {
+            delay = (long) (mRandom.nextDouble() * maxDelay);
+        }
+        return Math.max(delay, retryAfterMillis);
+    }
+
+}
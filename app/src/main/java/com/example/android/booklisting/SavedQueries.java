@@ -0,0 +1,82 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Search queries saved by the user. Their results are kept up to date in the local storage by
+ * {@link SavedQuerySyncService}, so they open without network.
+ */
+final class SavedQueries {
+
+    private static final String PREFERENCES_NAME = "saved_queries";
+
+    private static final String KEY_QUERIES = "queries";
+
+    private static final String KEY_LAST_SYNC = "last_sync";
+
+    private SavedQueries() {
+    }
+
+    /**
+     * Return the saved queries in alphabetical order.
+     */
+    static List<String> getAll(Context context) {
+        List<String> queries = new ArrayList<>(getQuerySet(context));
+        Collections.sort(queries, String.CASE_INSENSITIVE_ORDER);
+        return queries;
+    }
+
+    static boolean contains(Context context, String query) {
+        return getQuerySet(context).contains(query);
+    }
+
+    /**
+     * Save the query and schedule the sync of the saved queries if it isn't scheduled yet.
+     */
+    static void add(Context context, String query) {
+        // The returned set must not be modified, so a copy is stored
+        Set<String> queries = new HashSet<>(getQuerySet(context));
+        queries.add(query);
+        getPreferences(context).edit().putStringSet(KEY_QUERIES, queries).apply();
+        SavedQuerySyncService.schedule(context);
+    }
+
+    /**
+     * Remove the query, and stop syncing when no queries are left.
+     */
+    static void remove(Context context, String query) {
+        Set<String> queries = new HashSet<>(getQuerySet(context));
+        queries.remove(query);
+        getPreferences(context).edit().putStringSet(KEY_QUERIES, queries).apply();
+        if (queries.isEmpty()) {
+            SavedQuerySyncService.cancel(context);
+        }
+    }
+
+    /**
+     * Return the time in milliseconds when all saved queries were last synced, or 0 if never.
+     */
+    static long getLastSyncTime(Context context) {
+        return getPreferences(context).getLong(KEY_LAST_SYNC, 0);
+    }
+
+    static void setLastSyncTime(Context context, long time) {
+        getPreferences(context).edit().putLong(KEY_LAST_SYNC, time).apply();
+    }
+
+    private static Set<String> getQuerySet(Context context) {
+        return getPreferences(context).getStringSet(KEY_QUERIES, Collections.<String>emptySet());
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+}
@@ -0,0 +1,214 @@
+package com.example.android.booklisting;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job refreshing the results of the saved queries: all their pages with the order
+ * and filter chosen in the settings, the thumbnails of their books, and the books themselves
+ * in the local book store. Opening a saved query is then answered from the local storage.
+ * The job runs only while the device is charging or on an unmetered network. JobScheduler
+ * constraints can't be combined with "or", so there is one job for each of the two conditions,
+ * and whichever runs first does the sync for both.
+ * Saved queries are only synced on Android 5.0 and newer, where JobScheduler is available.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SavedQuerySyncService extends JobService {
+
+    private static final String LOG_TAG = SavedQuerySyncService.class.getSimpleName();
+
+    private static final int JOB_ID_CHARGING = 1;
+    private static final int JOB_ID_UNMETERED = 2;
+
+    /** Period of the sync jobs, shorter than the time the synced responses stay fresh */
+    private static final long SYNC_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    /** Saved queries synced more recently than this are not synced again by the other job */
+    private static final long MIN_SYNC_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /** Maximum number of books synced per query, several minutes of scrolling */
+    private static final int MAX_SYNCED_BOOKS = 200;
+
+    /** Sync in progress, or null. Only accessed on the main thread. */
+    private SyncThread mSyncThread;
+
+    /**
+     * Schedule the periodic sync jobs if they aren't scheduled yet. They are kept across reboots.
+     */
+    static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        boolean chargingScheduled = false;
+        boolean unmeteredScheduled = false;
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            chargingScheduled |= job.getId() == JOB_ID_CHARGING;
+            unmeteredScheduled |= job.getId() == JOB_ID_UNMETERED;
+        }
+        ComponentName service = new ComponentName(context, SavedQuerySyncService.class);
+        if (!chargingScheduled) {
+            jobScheduler.schedule(new JobInfo.Builder(JOB_ID_CHARGING, service)
+                    .setRequiresCharging(true)
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                    .setPeriodic(SYNC_PERIOD_MILLIS)
+                    .setPersisted(true)
+                    .build());
+        }
+        if (!unmeteredScheduled) {
+            jobScheduler.schedule(new JobInfo.Builder(JOB_ID_UNMETERED, service)
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                    .setPeriodic(SYNC_PERIOD_MILLIS)
+                    .setPersisted(true)
+                    .build());
+        }
+    }
+
+    /**
+     * Cancel the sync jobs, e.g. when there are no saved queries left.
+     */
+    static void cancel(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        jobScheduler.cancel(JOB_ID_CHARGING);
+        jobScheduler.cancel(JOB_ID_UNMETERED);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        long sinceLastSync = System.currentTimeMillis() - SavedQueries.getLastSyncTime(this);
+        if (mSyncThread != null || (sinceLastSync >= 0 && sinceLastSync < MIN_SYNC_INTERVAL_MILLIS)) {
+            // The other job is syncing or has just synced
+            return false;
+        }
+        mSyncThread = new SyncThread(params);
+        mSyncThread.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The condition of the job no longer holds, so stop and finish the sync next time
+        if (mSyncThread != null && mSyncThread.mParams.getJobId() == params.getJobId()) {
+            mSyncThread.mStopped = true;
+            mSyncThread.interrupt();
+            mSyncThread = null;
+            return true;
+        }
+        return false;
+    }
+
+    private void onSyncFinished(SyncThread syncThread, boolean completed) {
+        if (mSyncThread == syncThread) {
+            mSyncThread = null;
+            // A sync which didn't complete is finished by the next run of the periodic job
+            jobFinished(syncThread.mParams, false);
+            if (completed) {
+                Log.i(LOG_TAG, "Saved queries synced");
+            }
+        }
+    }
+
+    /**
+     * Thread syncing all saved queries one page at a time, so it can stop between requests.
+     */
+    private final class SyncThread extends Thread {
+
+        final JobParameters mParams;
+
+        volatile boolean mStopped;
+
+        SyncThread(JobParameters params) {
+            super("SavedQuerySync");
+            mParams = params;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            Context context = getApplicationContext();
+            List<String> queries = SavedQueries.getAll(context);
+            boolean completed = true;
+            for (String query : queries) {
+                if (!syncQuery(context, query)) {
+                    completed = false;
+                    break;
+                }
+            }
+            if (completed) {
+                SavedQueries.setLastSyncTime(context, System.currentTimeMillis());
+            }
+            final boolean syncCompleted = completed;
+            new Handler(getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    onSyncFinished(SyncThread.this, syncCompleted);
+                }
+            });
+        }
+
+        // Loads the pages of the query the way PagePrefetcher requests them while the list is
+        // scrolled, so their URLs are found in the response cache. Returns false if the sync
+        // was stopped or the server couldn't be reached.
+        private boolean syncQuery(Context context, String query) {
+            VolumeResponseCache responseCache = VolumeResponseCache.getInstance(context);
+            ThumbnailCache thumbnailCache = ThumbnailCache.getInstance(context);
+            BookStore bookStore = BookStore.getInstance(context);
+            int pageSize = SearchSettings.getPageSize(context);
+            for (int startIndex = 0; startIndex < MAX_SYNCED_BOOKS; startIndex += pageSize) {
+                if (mStopped) {
+                    return false;
+                }
+                BookPage page = QueryUtils.refreshBooks(
+                        SearchSettings.buildPageUrl(context, query, startIndex, pageSize), responseCache);
+                if (page == null) {
+                    return false;
+                }
+                Metrics.getInstance().increment(Metrics.COUNTER_SYNC_PAGES, 1);
+                List<Book> books = page.getBooks();
+                if (books.isEmpty()) {
+                    break;
+                }
+                bookStore.putBooks(books);
+                for (Book book : books) {
+                    if (mStopped) {
+                        return false;
+                    }
+                    syncThumbnail(thumbnailCache, book.getThumbnailUrl());
+                }
+                if (page.getTotalItems() != BookPage.UNKNOWN_TOTAL_ITEMS
+                        && startIndex + pageSize >= page.getTotalItems()) {
+                    break;
+                }
+            }
+            return true;
+        }
+
+        private void syncThumbnail(ThumbnailCache thumbnailCache, String thumbnailUrl) {
+            if (TextUtils.isEmpty(thumbnailUrl) || thumbnailCache.hasImageData(thumbnailUrl)) {
+                return;
+            }
+            byte[] data = QueryUtils.downloadBookImage(thumbnailUrl);
+            if (data != null) {
+                thumbnailCache.putImageData(thumbnailUrl, data);
+                Metrics.getInstance().increment(Metrics.COUNTER_SYNC_THUMBNAILS, 1);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Search options chosen in the settings, shared by the searches of the main screen and the
+ * background sync of saved queries, so both request the same URLs.
+ */
+final class SearchSettings {
+
+    /** URL base for books data from the Google Books API, or the server chosen at build time */
+    static final String REQUEST_URL_BASE = BuildConfig.BOOKS_API_BASE_URL;
+
+    private SearchSettings() {
+    }
+
+    /**
+     * Return the number of books per page chosen in the settings.
+     */
+    static int getPageSize(Context context) {
+        SharedPreferences sharePrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String pageSize = sharePrefs.getString(
+                context.getString(R.string.settings_page_size_key),
+                context.getString(R.string.settings_page_size_default)
+        );
+        try {
+            return Integer.parseInt(pageSize);
+        } catch (NumberFormatException e) {
+            return PagePrefetcher.DEFAULT_MIN_PAGE_SIZE;
+        }
+    }
+
+    /**
+     * Return true if only free eBooks are to be shown. They are filtered by the server, so only
+     * the books shown are downloaded.
+     */
+    static boolean isOnlyFreeEBooks(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(
+                context.getString(R.string.settings_only_free_ebooks_key), false);
+    }
+
+    /**
+     * Return true if the books are to be ordered by publication date, the most recent first.
+     */
+    static boolean isOrderByNewest(Context context) {
+        return context.getString(R.string.settings_order_by_most_recent_value).equals(getOrderBy(context));
+    }
+
+    /**
+     * Return the URL of a page of books matching the query, with the order and filter chosen
+     * in the settings.
+     */
+    static String buildPageUrl(Context context, String query, int startIndex, int pageSize) {
+        return VolumeSearchUrl.build(REQUEST_URL_BASE, query, startIndex, pageSize,
+                getOrderBy(context), isOnlyFreeEBooks(context));
+    }
+
+    private static String getOrderBy(Context context) {
+        SharedPreferences sharePrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return sharePrefs.getString(
+                context.getString(R.string.settings_order_by_key),
+                context.getString(R.string.settings_order_by_default)
+        );
+    }
+
+}
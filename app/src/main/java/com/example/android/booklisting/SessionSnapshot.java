@@ -0,0 +1,143 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Query and first books shown when the app was last left, stored in a small file so a cold
+ * start can show them at once while the query is loaded again.
+ * Methods of this class access the disk and must not be called on the main thread.
+ */
+final class SessionSnapshot {
+
+    /** Maximum number of books stored, about a few screens of the list */
+    static final int MAX_BOOKS = 40;
+
+    private static final String LOG_TAG = SessionSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "session_snapshot";
+
+    /** Version of the file format, files of other versions are ignored */
+    private static final int VERSION = 3;
+
+    final String query;
+
+    final List<Book> books;
+
+    private SessionSnapshot(String query, List<Book> books) {
+        this.query = query;
+        this.books = books;
+    }
+
+    /**
+     * Store the query and up to {@link #MAX_BOOKS} of its books, replacing the previous snapshot.
+     */
+    static void save(Context context, String query, List<Book> books) {
+        File file = getFile(context);
+        File tempFile = new File(file.getPath() + ".tmp");
+        int count = Math.min(books.size(), MAX_BOOKS);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(VERSION);
+            out.writeUTF(query);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                Book book = books.get(i);
+                writeNullableString(out, book.getId());
+                writeNullableString(out, book.getThumbnailUrl());
+                out.writeUTF(book.getTitle());
+                writeNullableString(out, book.getAuthors() == null ? null : book.getAuthors().toStoredString());
+                out.writeInt(book.getPackedPublishedDate());
+                writeNullableString(out, book.getId() == null ? book.getPreviewLink() : null);
+                out.writeByte(book.getSaleability());
+            }
+            out.close();
+            out = null;
+            // Replace the old snapshot only once the new one is complete
+            if (!tempFile.renameTo(file)) {
+                Log.e(LOG_TAG, "Can't replace the session snapshot " + file);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the session snapshot", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // The incomplete file is never read
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the stored snapshot, or null if there is none or it can't be read.
+     */
+    static SessionSnapshot load(Context context) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(getFile(context))));
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            String query = in.readUTF();
+            int count = in.readInt();
+            List<Book> books = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = readNullableString(in);
+                String thumbnailUrl = readNullableString(in);
+                String title = in.readUTF();
+                Authors authors = Authors.fromStoredString(readNullableString(in));
+                int publishedDate = in.readInt();
+                String previewLink = readNullableString(in);
+                int saleability = in.readByte();
+                books.add(new Book(id, thumbnailUrl, title, authors, publishedDate, previewLink,
+                        saleability));
+            }
+            return new SessionSnapshot(query, books);
+        } catch (FileNotFoundException e) {
+            // Nothing has been searched yet
+            return null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the session snapshot", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Everything needed has been read
+                }
+            }
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+}
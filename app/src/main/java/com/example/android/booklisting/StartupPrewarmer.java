@@ -0,0 +1,72 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Does the slow one-time initialization of the network and storage layers on a background
+ * thread at startup, so the first search and the first page don't pay for it on the main thread
+ * or while the user is waiting.
+ */
+final class StartupPrewarmer {
+
+    private static final String LOG_TAG = StartupPrewarmer.class.getSimpleName();
+
+    /** Hosts of the API and of the thumbnails, looked up ahead of the first requests */
+    private static final String[] HOSTS = {
+            Uri.parse(SearchSettings.REQUEST_URL_BASE).getHost(), "books.google.com"
+    };
+
+    private static boolean sStarted;
+
+    private StartupPrewarmer() {
+    }
+
+    /**
+     * Start warming up in background, once per process. Must be called on the main thread.
+     */
+    static void prewarm(Context context) {
+        if (sStarted) {
+            return;
+        }
+        sStarted = true;
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Loads the preferences file read when the request URLs are built
+                PreferenceManager.getDefaultSharedPreferences(appContext);
+                // Loads the saved queries read when the menu is prepared
+                SavedQueries.getAll(appContext);
+                // Opens the database and creates or upgrades its tables
+                BookStore.getInstance(appContext).getWritableDatabase();
+                VolumeResponseCache.getInstance(appContext);
+                try {
+                    // Initializes the security providers used by the TLS handshake
+                    SSLContext.getDefault();
+                } catch (GeneralSecurityException e) {
+                    Log.e(LOG_TAG, "Problem initializing TLS", e);
+                }
+                for (String host : HOSTS) {
+                    try {
+                        // The platform keeps the addresses in its DNS cache
+                        InetAddress.getAllByName(host);
+                    } catch (UnknownHostException e) {
+                        // Offline, the requests will fail or be answered from the caches anyway
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,290 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.io.File;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-level cache of book thumbnails keyed by thumbnail URL.
+ * Decoded bitmaps are kept in memory in an LRU cache limited by the number of bytes they use,
+ * and the downloaded image files are kept in the app cache directory, limited by total size.
+ * The dominant colors of decoded thumbnails are remembered longer than the bitmaps, to be shown
+ * as placeholders while a thumbnail is decoded again.
+ * The bitmaps in memory count against the budget of the {@link MemoryGovernor}, which trims them
+ * under memory pressure, the least recently used first.
+ * Bitmaps evicted from memory are reused to decode other thumbnails, but only once no row shows
+ * them anymore, so a decode never draws another cover into a row on the screen.
+ */
+final class ThumbnailCache implements Metrics.CounterSource, MemoryGovernor.Consumer {
+
+    /** Name of the directory inside the app cache directory to store thumbnail files in */
+    private static final String DISK_CACHE_DIR = "thumbnails";
+
+    /** Maximum size of the thumbnail files stored on disk */
+    private static final long DISK_CACHE_MAX_BYTES = 20 * 1024 * 1024;
+
+    /** Part of the maximum heap size which can be used by bitmaps kept in memory, within the memory budget */
+    private static final int MEMORY_CACHE_HEAP_DIVIDER = 8;
+
+    /** Part of the memory cache size which can be used by evicted bitmaps kept for reuse */
+    private static final int BITMAP_POOL_DIVIDER = 4;
+
+    /** Number of thumbnails whose dominant color is remembered, a few bytes each */
+    private static final int MAX_DOMINANT_COLORS = 2000;
+
+    private static ThumbnailCache sInstance;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    private final LruCache<String, Integer> mDominantColors = new LruCache<>(MAX_DOMINANT_COLORS);
+
+    private final BitmapPool mBitmapPool;
+
+    private final DiskCache mDiskCache;
+
+    /**
+     * Rows showing the bitmaps shown by at least one row, guarded by the lock on itself.
+     * The bitmaps are weakly referenced, so those of rows which are never recycled, e.g. because
+     * their activity was destroyed, don't stay in memory.
+     */
+    private final WeakHashMap<Bitmap, ShownBitmap> mShownBitmaps = new WeakHashMap<>();
+
+    private final AtomicLong mMemoryHits = new AtomicLong();
+    private final AtomicLong mDiskHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mMemoryEvictions = new AtomicLong();
+    private final AtomicLong mMemoryTrims = new AtomicLong();
+
+    static synchronized ThumbnailCache getInstance(Context context) {
+        if (sInstance == null) {
+            MemoryGovernor memoryGovernor = MemoryGovernor.getInstance(context);
+            sInstance = new ThumbnailCache(context.getApplicationContext(), memoryGovernor.getBudgetBytes());
+            Metrics.getInstance().addCounterSource(sInstance);
+            memoryGovernor.addConsumer(sInstance);
+        }
+        return sInstance;
+    }
+
+    private ThumbnailCache(Context context, long memoryBudgetBytes) {
+        int memoryCacheBytes = (int) Math.min(memoryBudgetBytes,
+                Runtime.getRuntime().maxMemory() / MEMORY_CACHE_HEAP_DIVIDER);
+        mBitmapPool = new BitmapPool(memoryCacheBytes / BITMAP_POOL_DIVIDER);
+        mMemoryCache = new LruCache<String, Bitmap>(memoryCacheBytes) {
+            @Override
+            protected int sizeOf(String thumbnailUrl, Bitmap thumbnail) {
+                return thumbnail.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String thumbnailUrl,
+                                        Bitmap oldThumbnail, Bitmap newThumbnail) {
+                if (evicted) {
+                    mMemoryEvictions.incrementAndGet();
+                    // The memory of the least recently bound thumbnails is reused, once they are not shown
+                    synchronized (mShownBitmaps) {
+                        ShownBitmap shownBitmap = mShownBitmaps.get(oldThumbnail);
+                        if (shownBitmap != null) {
+                            shownBitmap.mEvicted = true;
+                            return;
+                        }
+                    }
+                    mBitmapPool.put(oldThumbnail);
+                }
+            }
+        };
+        mDiskCache = new DiskCache(new File(context.getCacheDir(), DISK_CACHE_DIR), DISK_CACHE_MAX_BYTES);
+    }
+
+    /**
+     * Return the decoded thumbnail from memory, or null if it is not there.
+     * Safe to call on the main thread.
+     */
+    Bitmap getBitmap(String thumbnailUrl) {
+        Bitmap thumbnail = mMemoryCache.get(thumbnailUrl);
+        if (thumbnail != null) {
+            mMemoryHits.incrementAndGet();
+        }
+        return thumbnail;
+    }
+
+    void putBitmap(String thumbnailUrl, Bitmap thumbnail) {
+        mMemoryCache.put(thumbnailUrl, thumbnail);
+    }
+
+    /**
+     * Return the dominant color of the thumbnail, or 0 if it is not known.
+     * Safe to call on the main thread.
+     */
+    int getDominantColor(String thumbnailUrl) {
+        Integer color = mDominantColors.get(thumbnailUrl);
+        return color == null ? 0 : color;
+    }
+
+    /**
+     * Return the decoded thumbnail from memory and record that a row shows it, or return null if
+     * it is not there. The lookup is atomic with the eviction, so the bitmap isn't pooled and
+     * decoded into between the two. A returned bitmap isn't reused to decode another thumbnail
+     * while it is on the screen, and must be matched by a call to {@link #releaseShown(Bitmap)}
+     * once the row shows something else. Safe to call on the main thread.
+     */
+    Bitmap getAndAcquireShown(String thumbnailUrl) {
+        synchronized (mShownBitmaps) {
+            Bitmap thumbnail = getBitmap(thumbnailUrl);
+            if (thumbnail == null) {
+                return null;
+            }
+            ShownBitmap shownBitmap = mShownBitmaps.get(thumbnail);
+            if (shownBitmap == null) {
+                shownBitmap = new ShownBitmap();
+                mShownBitmaps.put(thumbnail, shownBitmap);
+            }
+            shownBitmap.mRows++;
+            return thumbnail;
+        }
+    }
+
+    /**
+     * Record that a row no longer shows the bitmap. A bitmap evicted from memory while it was
+     * shown goes to the pool once no row shows it anymore.
+     */
+    void releaseShown(Bitmap thumbnail) {
+        synchronized (mShownBitmaps) {
+            ShownBitmap shownBitmap = mShownBitmaps.get(thumbnail);
+            if (shownBitmap == null || --shownBitmap.mRows > 0) {
+                return;
+            }
+            mShownBitmaps.remove(thumbnail);
+            if (!shownBitmap.mEvicted) {
+                return;
+            }
+        }
+        mBitmapPool.put(thumbnail);
+    }
+
+    void putDominantColor(String thumbnailUrl, int color) {
+        mDominantColors.put(thumbnailUrl, color);
+    }
+
+    /**
+     * Return the pool receiving bitmaps evicted from memory, to decode new thumbnails into.
+     */
+    BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * Return the downloaded image file data from disk, or null if it is not there.
+     * Must not be called on the main thread.
+     */
+    byte[] getImageData(String thumbnailUrl) {
+        byte[] data = mDiskCache.get(thumbnailUrl);
+        if (data == null) {
+            mMisses.incrementAndGet();
+        } else {
+            mDiskHits.incrementAndGet();
+        }
+        return data;
+    }
+
+    /**
+     * Return true if the image file data is on disk. Doesn't count as a cache hit or miss.
+     * Must not be called on the main thread.
+     */
+    boolean hasImageData(String thumbnailUrl) {
+        return mDiskCache.contains(thumbnailUrl);
+    }
+
+    /**
+     * Store the downloaded image file data on disk, evicting the least recently used files
+     * if the cache becomes too big. Must not be called on the main thread.
+     */
+    void putImageData(String thumbnailUrl, byte[] data) {
+        mDiskCache.put(thumbnailUrl, data);
+    }
+
+    /**
+     * Delete the image file data from disk, e.g. because it couldn't be decoded.
+     * Must not be called on the main thread.
+     */
+    void removeImageData(String thumbnailUrl) {
+        mDiskCache.remove(thumbnailUrl);
+    }
+
+    /**
+     * Return the bytes of the bitmaps in memory, including those kept for reuse.
+     */
+    @Override
+    public long getRetainedBytes() {
+        return mMemoryCache.size() + mBitmapPool.getBytes();
+    }
+
+    /**
+     * Drop the bitmaps kept for reuse, then the least recently used ones in memory, until at most
+     * the given number of bytes is retained. Thumbnails dropped from memory are decoded again
+     * from disk when their rows are bound. Safe to call on the main thread.
+     */
+    @Override
+    public void trimTo(long maxBytes) {
+        mBitmapPool.trimTo(Math.max(0, maxBytes - mMemoryCache.size()));
+        long memoryCacheMaxBytes = maxBytes - mBitmapPool.getBytes();
+        if (mMemoryCache.size() <= memoryCacheMaxBytes) {
+            return;
+        }
+        // The snapshot is ordered from the least to the most recently used. Removed bitmaps
+        // don't go to the pool, whose memory is released too.
+        for (String thumbnailUrl : mMemoryCache.snapshot().keySet()) {
+            if (mMemoryCache.size() <= memoryCacheMaxBytes) {
+                break;
+            }
+            if (mMemoryCache.remove(thumbnailUrl) != null) {
+                mMemoryTrims.incrementAndGet();
+            }
+        }
+    }
+
+    long getMemoryHitCount() {
+        return mMemoryHits.get();
+    }
+
+    long getDiskHitCount() {
+        return mDiskHits.get();
+    }
+
+    long getMissCount() {
+        return mMisses.get();
+    }
+
+    long getMemoryEvictionCount() {
+        return mMemoryEvictions.get();
+    }
+
+    long getDiskEvictionCount() {
+        return mDiskCache.getEvictionCount();
+    }
+
+    @Override
+    public void readCounters(Map<String, Long> counters) {
+        counters.put("thumbnail_cache.memory_hits", getMemoryHitCount());
+        counters.put("thumbnail_cache.disk_hits", getDiskHitCount());
+        counters.put("thumbnail_cache.misses", getMissCount());
+        counters.put("thumbnail_cache.memory_evictions", getMemoryEvictionCount());
+        counters.put("thumbnail_cache.memory_trims", mMemoryTrims.get());
+        counters.put("thumbnail_cache.disk_evictions", getDiskEvictionCount());
+    }
+
+    /**
+     * Rows showing a bitmap, and whether it has been evicted from memory meanwhile.
+     */
+    private static final class ShownBitmap {
+
+        int mRows;
+
+        boolean mEvicted;
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.example.android.booklisting;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Decodes book thumbnails downsampled to the size of the view they are shown in,
+ * reusing bitmaps from a {@link BitmapPool} when possible.
+ */
+final class ThumbnailDecoder {
+
+    private static final String LOG_TAG = ThumbnailDecoder.class.getSimpleName();
+
+    private final int mTargetWidth;
+
+    private final int mTargetHeight;
+
+    private final Bitmap.Config mConfig;
+
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * @param targetWidth  width of the view the thumbnails are shown in, in pixels
+     * @param targetHeight height of the view the thumbnails are shown in, in pixels
+     * @param config       pixel format of the decoded thumbnails, e.g. {@link Bitmap.Config#RGB_565}
+     *                     to use half the memory of {@link Bitmap.Config#ARGB_8888}
+     * @param bitmapPool   pool of bitmaps to decode into
+     */
+    ThumbnailDecoder(int targetWidth, int targetHeight, Bitmap.Config config, BitmapPool bitmapPool) {
+        mTargetWidth = targetWidth;
+        mTargetHeight = targetHeight;
+        mConfig = config;
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * Decode the image file data, or return null if it is not a valid image.
+     */
+    Bitmap decode(byte[] data) {
+        // Read only the image dimensions first to calculate how much it can be downsampled
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int width = options.outWidth;
+        int height = options.outHeight;
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(width, height);
+        options.inPreferredConfig = mConfig;
+        options.inMutable = true;
+        Bitmap pooledBitmap = mBitmapPool.get(width, height, options);
+        options.inBitmap = pooledBitmap;
+
+        try {
+            Bitmap thumbnail = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if (thumbnail == null) {
+                // The data couldn't be decoded, but the pooled bitmap can still decode another one
+                mBitmapPool.put(pooledBitmap);
+            }
+            return thumbnail;
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap turned out to be unsuitable for this image, so decode into a new one.
+            // It goes back to the pool, as it may still fit other images.
+            Log.w(LOG_TAG, "Can't reuse bitmap for decoding", e);
+            mBitmapPool.put(pooledBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * Return the average color of the thumbnail, opaque, as a cheap stand-in for its dominant color.
+     */
+    static int getDominantColor(Bitmap thumbnail) {
+        Bitmap pixel = Bitmap.createScaledBitmap(thumbnail, 1, 1, true);
+        int color = pixel.getPixel(0, 0) | 0xff000000;
+        if (pixel != thumbnail) {
+            pixel.recycle();
+        }
+        return color;
+    }
+
+    // Largest power of two keeping both dimensions not less than the target size
+    private int calculateInSampleSize(int width, int height) {
+        int inSampleSize = 1;
+        if (mTargetWidth <= 0 || mTargetHeight <= 0) {
+            return inSampleSize;
+        }
+        while ((width / (inSampleSize * 2)) >= mTargetWidth
+                && (height / (inSampleSize * 2)) >= mTargetHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+}
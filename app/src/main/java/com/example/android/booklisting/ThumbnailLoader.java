@@ -0,0 +1,447 @@
+package com.example.android.booklisting;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads and decodes book thumbnails on a bounded pool of background threads, so that a page
+ * of books can be shown as soon as its JSON is parsed and every cover fills in as it arrives.
+ * Thumbnails of bound rows are loaded before the ones only prefetched to disk for rows further
+ * down, rows which are recycled before their thumbnail is loaded cancel their request, and
+ * decoding and delivery are paused while the list is flung, so the fling doesn't compete with them.
+ * Downloads go on during the pause: a thumbnail downloaded meanwhile waits on disk, without
+ * holding a worker thread, and is decoded once loading is resumed.
+ * The number of simultaneous downloads from the same host is capped separately.
+ * Must be used on the main thread.
+ */
+final class ThumbnailLoader {
+
+    /** Receives downloaded thumbnails on the main thread */
+    interface Callback {
+        void onThumbnailLoaded(String thumbnailUrl, Bitmap thumbnail);
+    }
+
+    /** Priority of the thumbnails of bound rows, which are downloaded and decoded */
+    private static final int PRIORITY_BOUND = 0;
+
+    /** Priority of the thumbnails of rows not bound yet, which are only downloaded to disk */
+    private static final int PRIORITY_PREFETCH = 1;
+
+    /** Number of threads downloading thumbnails at the same time */
+    private static final int WORKER_COUNT = 6;
+
+    /** Maximum number of simultaneous downloads from a single host */
+    private static final int MAX_REQUESTS_PER_HOST = 4;
+
+    /** Time before a thumbnail which failed to load once is tried again */
+    private static final long FIRST_RETRY_DELAY_MILLIS = 5000;
+
+    /** Longest time before a thumbnail which failed to load is tried again */
+    private static final long MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** One semaphore per host limiting the number of open connections to it */
+    private final ConcurrentHashMap<String, Semaphore> mHostPermits = new ConcurrentHashMap<>();
+
+    /** Requests which are queued or running by URL, used to avoid loading the same image twice */
+    private final Map<String, LoadTask> mTasks = new HashMap<>();
+
+    /**
+     * Failures of the URLs which couldn't be loaded, so rebinding their rows doesn't retry them
+     * over and over. They expire after a delay doubled by every failure, so a thumbnail which
+     * timed out or was requested while offline is loaded again when its row is bound later.
+     */
+    private final Map<String, Failure> mFailures = new HashMap<>();
+
+    /** Thumbnails loaded while paused, delivered when loading is resumed */
+    private final List<LoadTask> mDeferredResults = new ArrayList<>();
+
+    /** Sequence number of the requests keeping the order of requests with the same priority */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /** Tasks of bound rows which loaded their thumbnail while paused, decoded when loading is resumed */
+    private final List<LoadTask> mPendingDecodes = new ArrayList<>();
+
+    /** True while decoding and delivery are paused, changed on the main thread and read by the workers */
+    private volatile boolean mPaused;
+
+    private final ThumbnailCache mCache;
+
+    private final ThumbnailDecoder mDecoder;
+
+    private final Callback mCallback;
+
+    private volatile boolean mShutdown;
+
+    ThumbnailLoader(ThumbnailCache cache, ThumbnailDecoder decoder, Callback callback) {
+        mCache = cache;
+        mDecoder = decoder;
+        mCallback = callback;
+        mExecutor = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "ThumbnailLoader #" + mCount.getAndIncrement());
+            }
+        });
+    }
+
+    /**
+     * Return the thumbnail with the given URL if it is already decoded in memory, and record that
+     * a row shows it, or return null otherwise. See {@link ThumbnailCache#getAndAcquireShown(String)}.
+     */
+    Bitmap getAndAcquireShown(String thumbnailUrl) {
+        if (TextUtils.isEmpty(thumbnailUrl)) {
+            return null;
+        }
+        return mCache.getAndAcquireShown(thumbnailUrl);
+    }
+
+    /**
+     * Return the color to show while the thumbnail with the given URL is loading, or 0 if it
+     * has never been decoded.
+     */
+    int getPlaceholderColor(String thumbnailUrl) {
+        if (TextUtils.isEmpty(thumbnailUrl)) {
+            return 0;
+        }
+        return mCache.getDominantColor(thumbnailUrl);
+    }
+
+    /**
+     * Record that a row no longer shows the cached thumbnail.
+     */
+    void releaseShown(Bitmap thumbnail) {
+        mCache.releaseShown(thumbnail);
+    }
+
+    /**
+     * Return true if the thumbnail with the given URL couldn't be loaded before.
+     */
+    boolean hasFailed(String thumbnailUrl) {
+        Failure failure = mFailures.get(thumbnailUrl);
+        return failure != null && SystemClock.elapsedRealtime() < failure.mRetryAt;
+    }
+
+    /**
+     * Load the thumbnail of a bound row from the disk cache or from the network, ahead of the
+     * prefetched ones. Every call must be matched by a call to {@link #cancel(String)} when
+     * the row is recycled or bound to another thumbnail, unless the thumbnail has been delivered.
+     * Does nothing if the URL is empty or the thumbnail has failed to load recently.
+     */
+    void load(String thumbnailUrl) {
+        if (mShutdown || TextUtils.isEmpty(thumbnailUrl) || hasFailed(thumbnailUrl)) {
+            return;
+        }
+        LoadTask task = mTasks.get(thumbnailUrl);
+        if (task == null) {
+            task = new LoadTask(thumbnailUrl, PRIORITY_BOUND);
+            task.mBoundRows = 1;
+            task.mDecode = true;
+            mTasks.put(thumbnailUrl, task);
+            mExecutor.execute(task);
+            return;
+        }
+        task.mBoundRows++;
+        task.mDecode = true;
+        // A prefetch still waiting in the queue moves ahead of the other prefetches
+        if (task.mPriority != PRIORITY_BOUND && mExecutor.remove(task)) {
+            task.mPriority = PRIORITY_BOUND;
+            mExecutor.execute(task);
+        }
+    }
+
+    /**
+     * Download the thumbnail with the given URL to the disk cache without decoding it, after
+     * the thumbnails of the bound rows, so it shows quickly once its row is bound.
+     */
+    void prefetch(String thumbnailUrl) {
+        if (mShutdown || TextUtils.isEmpty(thumbnailUrl) || hasFailed(thumbnailUrl)
+                || mTasks.containsKey(thumbnailUrl) || mCache.getBitmap(thumbnailUrl) != null) {
+            return;
+        }
+        LoadTask task = new LoadTask(thumbnailUrl, PRIORITY_PREFETCH);
+        mTasks.put(thumbnailUrl, task);
+        mExecutor.execute(task);
+    }
+
+    /**
+     * Drop the request of a row for the thumbnail, e.g. because the row has been recycled.
+     * A download which is still queued is cancelled if no other row waits for it, and a running one
+     * is finished to the disk cache without decoding.
+     */
+    void cancel(String thumbnailUrl) {
+        LoadTask task = mTasks.get(thumbnailUrl);
+        if (task == null || task.mBoundRows == 0) {
+            return;
+        }
+        task.mBoundRows--;
+        if (task.mBoundRows == 0) {
+            task.mDecode = false;
+            if (mExecutor.remove(task)) {
+                mTasks.remove(thumbnailUrl);
+            }
+        }
+    }
+
+    /**
+     * Pause or resume decoding and delivering thumbnails, e.g. while the list is flung.
+     * Downloads continue while paused.
+     */
+    void setPaused(boolean paused) {
+        if (mPaused == paused) {
+            return;
+        }
+        mPaused = paused;
+        if (!paused) {
+            List<LoadTask> results = new ArrayList<>(mDeferredResults);
+            mDeferredResults.clear();
+            for (LoadTask task : results) {
+                deliver(task);
+            }
+            List<LoadTask> pendingDecodes = new ArrayList<>(mPendingDecodes);
+            mPendingDecodes.clear();
+            for (LoadTask task : pendingDecodes) {
+                resumeDecode(task);
+            }
+        }
+    }
+
+    /**
+     * Drop all queued downloads and stop delivering results. The loader can't be used afterwards.
+     */
+    void shutdown() {
+        mShutdown = true;
+        setPaused(false);
+        mExecutor.shutdownNow();
+        mMainHandler.removeCallbacksAndMessages(null);
+        mDeferredResults.clear();
+        mPendingDecodes.clear();
+    }
+
+    // Queues the decoding of a thumbnail loaded while paused, from the disk cache, if a row
+    // still waits for it. The task stays in mTasks meanwhile, so rows bound to it are counted.
+    private void resumeDecode(LoadTask task) {
+        if (mShutdown) {
+            return;
+        }
+        if (task.mBoundRows == 0) {
+            if (mTasks.get(task.mUrl) == task) {
+                mTasks.remove(task.mUrl);
+            }
+            return;
+        }
+        task.mPriority = PRIORITY_BOUND;
+        mExecutor.execute(task);
+    }
+
+    private void onTaskFinished(LoadTask task) {
+        if (task.mDecodePending) {
+            task.mDecodePending = false;
+            if (mPaused) {
+                mPendingDecodes.add(task);
+            } else {
+                resumeDecode(task);
+            }
+            return;
+        }
+        if (mTasks.get(task.mUrl) == task) {
+            mTasks.remove(task.mUrl);
+        }
+        if (task.mFailed) {
+            Failure failure = mFailures.get(task.mUrl);
+            if (failure == null) {
+                failure = new Failure();
+                mFailures.put(task.mUrl, failure);
+            }
+            failure.mCount++;
+            long delay = FIRST_RETRY_DELAY_MILLIS << Math.min(failure.mCount - 1, 16);
+            failure.mRetryAt = SystemClock.elapsedRealtime() + Math.min(delay, MAX_RETRY_DELAY_MILLIS);
+            return;
+        }
+        mFailures.remove(task.mUrl);
+        if (task.mThumbnail == null) {
+            // The last row cancelled it, but another one was bound to it after it was decided not
+            // to decode, so the thumbnail is loaded again, now from the disk cache
+            if (task.mBoundRows > 0) {
+                int boundRows = task.mBoundRows;
+                for (int i = 0; i < boundRows; i++) {
+                    load(task.mUrl);
+                }
+            }
+            return;
+        }
+        if (mPaused) {
+            mDeferredResults.add(task);
+        } else {
+            deliver(task);
+        }
+    }
+
+    private void deliver(LoadTask task) {
+        if (!mShutdown) {
+            mCallback.onThumbnailLoaded(task.mUrl, task.mThumbnail);
+        }
+    }
+
+    private Bitmap decode(String thumbnailUrl, byte[] data) {
+        long decodeStart = Metrics.startTimer();
+        Bitmap thumbnail = mDecoder.decode(data);
+        Metrics.getInstance().recordSince(Metrics.Stage.THUMBNAIL_DECODE, decodeStart);
+        if (thumbnail != null) {
+            mCache.putBitmap(thumbnailUrl, thumbnail);
+            mCache.putDominantColor(thumbnailUrl, ThumbnailDecoder.getDominantColor(thumbnail));
+        }
+        return thumbnail;
+    }
+
+    private byte[] download(String thumbnailUrl) {
+        Semaphore permits = getHostPermits(Uri.parse(thumbnailUrl).getHost());
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            return QueryUtils.downloadBookImage(thumbnailUrl);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Semaphore getHostPermits(String host) {
+        if (host == null) {
+            host = "";
+        }
+        Semaphore permits = mHostPermits.get(host);
+        if (permits == null) {
+            permits = new Semaphore(MAX_REQUESTS_PER_HOST);
+            Semaphore existing = mHostPermits.putIfAbsent(host, permits);
+            if (existing != null) {
+                permits = existing;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Failed attempts to load a thumbnail.
+     */
+    private static final class Failure {
+
+        int mCount;
+
+        /** Elapsed realtime after which the thumbnail may be loaded again */
+        long mRetryAt;
+    }
+
+    /**
+     * Request ordered in the executor queue by priority, then by the time it was queued.
+     */
+    private final class LoadTask implements Runnable, Comparable<LoadTask> {
+
+        final String mUrl;
+
+        final long mSequenceNumber;
+
+        final long mQueuedAt = Metrics.startTimer();
+
+        /** Changed only while the task is not in the executor queue */
+        volatile int mPriority;
+
+        /** True if the thumbnail is decoded after it is loaded, false to only store it on disk */
+        volatile boolean mDecode;
+
+        /** Number of bound rows waiting for the thumbnail, only accessed on the main thread */
+        int mBoundRows;
+
+        /** Results, published to the main thread by the handler */
+        Bitmap mThumbnail;
+
+        boolean mFailed;
+
+        /** True if the thumbnail was loaded while paused and is still to be decoded */
+        boolean mDecodePending;
+
+        LoadTask(String url, int priority) {
+            mUrl = url;
+            mPriority = priority;
+            mSequenceNumber = mSequence.getAndIncrement();
+        }
+
+        @Override
+        public void run() {
+            if (mShutdown) {
+                return;
+            }
+            byte[] data = mCache.getImageData(mUrl);
+            if (data == null) {
+                data = download(mUrl);
+                if (data != null) {
+                    mCache.putImageData(mUrl, data);
+                }
+            }
+            if (data == null) {
+                mFailed = true;
+            } else if (mDecode && mPaused) {
+                // The data is on disk, so the worker is released for other downloads
+                mDecodePending = true;
+            } else if (mDecode) {
+                mThumbnail = decode(mUrl, data);
+                if (mThumbnail == null) {
+                    // Downloaded again when the failure expires
+                    mCache.removeImageData(mUrl);
+                    mFailed = true;
+                } else {
+                    Metrics.getInstance().recordSince(Metrics.Stage.THUMBNAIL_LOAD, mQueuedAt);
+                }
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onTaskFinished(LoadTask.this);
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(LoadTask other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequenceNumber < other.mSequenceNumber ? -1
+                    : (mSequenceNumber == other.mSequenceNumber ? 0 : 1);
+        }
+    }
+
+}
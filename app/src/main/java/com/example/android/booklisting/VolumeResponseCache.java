@@ -0,0 +1,223 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache of Google Books API volume list responses keyed by normalized request URL.
+ * Responses younger than {@link #TTL_MILLIS} are served without any request, older ones are
+ * revalidated with ETag / If-Modified-Since, and any cached response is served when the
+ * network is not available. Responses of saved queries, kept up to date by the background sync,
+ * stay fresh for {@link #SYNCED_TTL_MILLIS}.
+ */
+final class VolumeResponseCache implements Metrics.CounterSource {
+
+    /** Name of the directory inside the app cache directory to store responses in */
+    private static final String DISK_CACHE_DIR = "volumes";
+
+    /** Maximum size of the responses stored on disk */
+    private static final long DISK_CACHE_MAX_BYTES = 5 * 1024 * 1024;
+
+    /** Time during which a cached response is used without asking the server */
+    static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /**
+     * Time during which a response stored by the background sync is used without asking
+     * the server, longer than the sync period so saved queries open without network
+     */
+    static final long SYNCED_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /** Version of the stored entry format, entries of other versions are ignored */
+    private static final int FORMAT_VERSION = 2;
+
+    private static VolumeResponseCache sInstance;
+
+    private final DiskCache mDiskCache;
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mRevalidatedHits = new AtomicLong();
+    private final AtomicLong mStaleHits = new AtomicLong();
+
+    /**
+     * Response stored in the cache together with the validators returned by the server.
+     */
+    static final class Entry {
+
+        final byte[] body;
+
+        final String eTag;
+
+        final String lastModified;
+
+        /** Time in milliseconds when the response was received or last revalidated */
+        final long fetchedAt;
+
+        /** Time after {@link #fetchedAt} during which the response is used without asking the server */
+        final long maxAgeMillis;
+
+        Entry(byte[] body, String eTag, String lastModified, long fetchedAt) {
+            this(body, eTag, lastModified, fetchedAt, TTL_MILLIS);
+        }
+
+        Entry(byte[] body, String eTag, String lastModified, long fetchedAt, long maxAgeMillis) {
+            this.body = body;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+
+        boolean isFresh() {
+            long age = System.currentTimeMillis() - fetchedAt;
+            return age >= 0 && age < maxAgeMillis;
+        }
+    }
+
+    static synchronized VolumeResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new VolumeResponseCache(
+                    new File(context.getApplicationContext().getCacheDir(), DISK_CACHE_DIR));
+            Metrics.getInstance().addCounterSource(sInstance);
+        }
+        return sInstance;
+    }
+
+    private VolumeResponseCache(File directory) {
+        mDiskCache = new DiskCache(directory, DISK_CACHE_MAX_BYTES);
+    }
+
+    /**
+     * Return the response cached for the given request URL, or null if there is none.
+     * Every call counts as one request for the hit rate.
+     */
+    Entry get(String requestUrl) {
+        mRequests.incrementAndGet();
+        byte[] data = mDiskCache.get(normalizeUrl(requestUrl));
+        if (data == null) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown cache entry format");
+            }
+            long fetchedAt = in.readLong();
+            long maxAgeMillis = in.readLong();
+            String eTag = in.readUTF();
+            String lastModified = in.readUTF();
+            byte[] body = new byte[in.available()];
+            in.readFully(body);
+            return new Entry(body, eTag.isEmpty() ? null : eTag,
+                    lastModified.isEmpty() ? null : lastModified, fetchedAt, maxAgeMillis);
+        } catch (IOException e) {
+            mDiskCache.remove(normalizeUrl(requestUrl));
+            return null;
+        }
+    }
+
+    void put(String requestUrl, Entry entry) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(entry.body.length + 128);
+        DataOutputStream out = new DataOutputStream(data);
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(entry.fetchedAt);
+            out.writeLong(entry.maxAgeMillis);
+            out.writeUTF(entry.eTag == null ? "" : entry.eTag);
+            out.writeUTF(entry.lastModified == null ? "" : entry.lastModified);
+            out.write(entry.body);
+        } catch (IOException e) {
+            // Writing to memory doesn't fail
+            throw new IllegalStateException(e);
+        }
+        mDiskCache.put(normalizeUrl(requestUrl), data.toByteArray());
+    }
+
+    /** A fresh response was served without any request to the server */
+    void recordHit() {
+        mHits.incrementAndGet();
+    }
+
+    /** The server confirmed that the cached response is still valid */
+    void recordRevalidatedHit() {
+        mRevalidatedHits.incrementAndGet();
+    }
+
+    /** An outdated response was served because the server couldn't be reached */
+    void recordStaleHit() {
+        mStaleHits.incrementAndGet();
+    }
+
+    long getRequestCount() {
+        return mRequests.get();
+    }
+
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    long getRevalidatedHitCount() {
+        return mRevalidatedHits.get();
+    }
+
+    long getStaleHitCount() {
+        return mStaleHits.get();
+    }
+
+    /**
+     * Part of the requests answered with the cached response body, with or without revalidation.
+     */
+    double getHitRate() {
+        long requests = mRequests.get();
+        if (requests == 0) {
+            return 0;
+        }
+        return (double) (mHits.get() + mRevalidatedHits.get() + mStaleHits.get()) / requests;
+    }
+
+    @Override
+    public void readCounters(Map<String, Long> counters) {
+        counters.put("volume_cache.requests", getRequestCount());
+        counters.put("volume_cache.hits", getHitCount());
+        counters.put("volume_cache.revalidated_hits", getRevalidatedHitCount());
+        counters.put("volume_cache.stale_hits", getStaleHitCount());
+    }
+
+    /**
+     * Return the URL with lower-case scheme and host and with query parameters sorted by name,
+     * so that the same request always has the same cache key.
+     */
+    static String normalizeUrl(String requestUrl) {
+        Uri uri = Uri.parse(requestUrl);
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        if (uri.getScheme() != null) {
+            builder.scheme(uri.getScheme().toLowerCase(Locale.US));
+        }
+        if (uri.getEncodedAuthority() != null) {
+            builder.encodedAuthority(uri.getEncodedAuthority().toLowerCase(Locale.US));
+        }
+        List<String> names = new ArrayList<>(uri.getQueryParameterNames());
+        Collections.sort(names);
+        for (String name : names) {
+            for (String value : uri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        return builder.build().toString();
+    }
+
+}
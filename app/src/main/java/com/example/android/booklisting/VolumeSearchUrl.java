@@ -0,0 +1,48 @@
+package com.example.android.booklisting;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Builds Google Books API volume search URLs.
+ * The URLs ask for only the fields read by {@link BookJsonParser}.
+ * It uses no Android classes, so it can also be run and measured on a plain JVM.
+ */
+final class VolumeSearchUrl {
+
+    private VolumeSearchUrl() {
+    }
+
+    /**
+     * Return the URL of the page of books matching the query which starts at the given index.
+     */
+    static String build(String baseUrl, String query, int startIndex, int pageSize, String orderBy,
+                        boolean onlyFreeEBooks) {
+        StringBuilder url = new StringBuilder(baseUrl.length() + query.length() + 64);
+        url.append(baseUrl);
+        appendQueryParameter(url, "q", query);
+        appendQueryParameter(url, "maxResults", String.valueOf(pageSize));
+        appendQueryParameter(url, "orderBy", orderBy);
+        appendQueryParameter(url, "startIndex", String.valueOf(startIndex));
+        if (onlyFreeEBooks) {
+            appendQueryParameter(url, "filter", "free-ebooks");
+        }
+        appendQueryParameter(url, "fields", BookJsonParser.FIELDS);
+        return url.toString();
+    }
+
+    private static void appendQueryParameter(StringBuilder url, String name, String value) {
+        url.append(url.indexOf("?") < 0 ? '?' : '&').append(name).append('=').append(encode(value));
+    }
+
+    // Encodes spaces as %20 like android.net.Uri does, so the URLs of the cached responses stay the same
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is supported on every platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
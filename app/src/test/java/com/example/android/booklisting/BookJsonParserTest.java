@@ -0,0 +1,115 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the parsing of responses with null or missing fields.
+ */
+public class BookJsonParserTest {
+
+    @Test
+    public void parse() throws IOException {
+        List<Book> books = new ArrayList<>();
+        int totalItems = parse("{\"totalItems\":42,\"items\":[{\"id\":\"a1\",\"volumeInfo\":{"
+                + "\"title\":\"Title\",\"authors\":[\"Tolkien, J. R. R.\",\"Someone\"],"
+                + "\"publishedDate\":\"1954-07\",\"imageLinks\":{\"thumbnail\":\"http://img/a1\"}},"
+                + "\"saleInfo\":{\"saleability\":\"FREE\"}}]}", books);
+
+        assertEquals(42, totalItems);
+        assertEquals(1, books.size());
+        Book book = books.get(0);
+        assertEquals("a1", book.getId());
+        assertEquals("Title", book.getTitle());
+        assertEquals(2, book.getAuthors().size());
+        assertEquals("Tolkien, J. R. R.", book.getAuthors().get(0));
+        assertEquals("1954-07", book.getPublishedDate());
+        assertEquals("http://img/a1", book.getThumbnailUrl());
+        assertEquals(Book.SALEABILITY_FREE, book.getSaleability());
+    }
+
+    @Test
+    public void parse_nullAuthorNames_areDropped() throws IOException {
+        List<Book> books = new ArrayList<>();
+        parse("{\"items\":[{\"id\":\"a1\",\"volumeInfo\":{\"title\":\"Title\","
+                + "\"authors\":[null,\"Someone\",null]}}]}", books);
+
+        assertEquals(1, books.get(0).getAuthors().size());
+        assertEquals("Someone", books.get(0).getAuthor());
+    }
+
+    @Test
+    public void parse_onlyNullAuthorNames() throws IOException {
+        List<Book> books = new ArrayList<>();
+        parse("{\"items\":[{\"id\":\"a1\",\"volumeInfo\":{\"title\":\"Title\",\"authors\":[null]}}]}", books);
+
+        assertNull(books.get(0).getAuthors());
+    }
+
+    @Test
+    public void parse_nullFields_areSkipped() throws IOException {
+        List<Book> books = new ArrayList<>();
+        parse("{\"totalItems\":null,\"items\":[{\"id\":\"a1\",\"volumeInfo\":{\"title\":\"Title\","
+                + "\"authors\":null,\"publishedDate\":null,\"imageLinks\":{\"thumbnail\":null,"
+                + "\"smallThumbnail\":\"http://img/small\"}},\"saleInfo\":{\"saleability\":null}}]}", books);
+
+        assertEquals(1, books.size());
+        Book book = books.get(0);
+        assertNull(book.getAuthors());
+        assertNull(book.getPublishedDate());
+        assertNull(book.getThumbnailUrl());
+        assertEquals(Book.SALEABILITY_UNKNOWN, book.getSaleability());
+    }
+
+    @Test
+    public void parse_nullImageLinks() throws IOException {
+        List<Book> books = new ArrayList<>();
+        parse("{\"items\":[{\"id\":\"a1\",\"volumeInfo\":{\"title\":\"Title\",\"imageLinks\":null}},"
+                + "{\"id\":\"a2\",\"volumeInfo\":{\"title\":\"Other\"}}]}", books);
+
+        assertEquals(2, books.size());
+        assertNull(books.get(0).getThumbnailUrl());
+    }
+
+    @Test
+    public void parse_itemsWithoutTitle_areSkipped() throws IOException {
+        List<Book> books = new ArrayList<>();
+        parse("{\"items\":[{\"id\":\"a1\",\"volumeInfo\":{\"title\":null}},{\"id\":\"a2\"},"
+                + "{\"volumeInfo\":{\"title\":\"No key\"}},{\"id\":\"a3\",\"volumeInfo\":{\"title\":\"T\"}}]}", books);
+
+        assertEquals(1, books.size());
+        assertEquals("a3", books.get(0).getId());
+    }
+
+    @Test
+    public void parseVolume_nullFields() throws IOException {
+        Book book = BookJsonParser.parseVolume(stream("{\"id\":\"v1\",\"volumeInfo\":{\"title\":\"Title\","
+                + "\"authors\":[\"A\",null],\"imageLinks\":{\"thumbnail\":null}}}"));
+
+        assertEquals("v1", book.getId());
+        assertEquals("A", book.getAuthor());
+        assertNull(book.getThumbnailUrl());
+    }
+
+    private static int parse(String json, final List<Book> books) throws IOException {
+        return BookJsonParser.parse(stream(json), new BookJsonParser.BookHandler() {
+            @Override
+            public void onBook(Book book) {
+                books.add(book);
+            }
+        });
+    }
+
+    private static InputStream stream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+}
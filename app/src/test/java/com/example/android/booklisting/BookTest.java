@@ -0,0 +1,115 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the authors and the publication dates of books survive packing and unpacking,
+ * as done when the books are stored and restored.
+ */
+public class BookTest {
+
+    @Test
+    public void authors_withCommas_surviveStoring() {
+        List<String> names = Arrays.asList("Tolkien, J. R. R.", "Tolkien, Christopher");
+        Authors authors = Authors.of(names);
+
+        Authors restored = Authors.fromStoredString(authors.toStoredString());
+
+        assertNames(names, restored);
+        assertEquals("Tolkien, J. R. R., Tolkien, Christopher", restored.toString());
+    }
+
+    @Test
+    public void authors_withSeparators_surviveStoring() {
+        List<String> names = Arrays.asList("Smith; Jones", "Black & White", "A / B", "", "Doe");
+
+        Authors restored = Authors.fromStoredString(Authors.of(names).toStoredString());
+
+        assertNames(names, restored);
+    }
+
+    @Test
+    public void authors_areInterned() {
+        Authors authors = Authors.of(Arrays.asList("Ada Lovelace", "Charles Babbage"));
+
+        assertSame(authors, Authors.of(Arrays.asList("Ada Lovelace", "Charles Babbage")));
+        assertSame(authors, Authors.fromStoredString(authors.toStoredString()));
+    }
+
+    @Test
+    public void authors_empty() {
+        assertNull(Authors.of(null));
+        assertNull(Authors.of(Collections.<String>emptyList()));
+        assertNull(Authors.fromStoredString(null));
+        assertNull(Authors.fromStoredString(""));
+    }
+
+    @Test
+    public void book_withoutAuthors() {
+        Book book = new Book("id", null, "Title", Collections.<String>emptyList(), "2001", null);
+
+        assertNull(book.getAuthors());
+        assertNull(book.getAuthor());
+    }
+
+    @Test
+    public void date_yearOnly_survivesPacking() {
+        assertEquals(19990000, Book.packDate("1999"));
+        assertEquals("1999", Book.formatDate(Book.packDate("1999")));
+    }
+
+    @Test
+    public void date_yearMonth_survivesPacking() {
+        assertEquals(20030700, Book.packDate("2003-07"));
+        assertEquals("2003-07", Book.formatDate(Book.packDate("2003-07")));
+    }
+
+    @Test
+    public void date_full_survivesPacking() {
+        assertEquals("2016-02-29", Book.formatDate(Book.packDate("2016-02-29")));
+        assertEquals("0850-01-01", Book.formatDate(Book.packDate("0850-01-01")));
+    }
+
+    @Test
+    public void date_unrecognizedParts_areDropped() {
+        assertEquals("2010", Book.formatDate(Book.packDate("2010-13")));
+        assertEquals("2010-05", Book.formatDate(Book.packDate("2010-05-00")));
+        assertEquals("2010-05-04", Book.formatDate(Book.packDate("2010-05-04T10:00:00Z")));
+    }
+
+    @Test
+    public void date_missing() {
+        assertEquals(Book.NO_DATE, Book.packDate(null));
+        assertEquals(Book.NO_DATE, Book.packDate(""));
+        assertEquals(Book.NO_DATE, Book.packDate("n.d."));
+        assertNull(Book.formatDate(Book.NO_DATE));
+    }
+
+    @Test
+    public void book_datesSurviveRestoring() {
+        for (String date : Arrays.asList("1999", "2003-07", "2016-02-29")) {
+            Book book = new Book("id", null, "Title", Arrays.asList("Author"), date, null);
+            // As restored from the stored packed date
+            Book restored = new Book(book.getId(), null, book.getTitle(), book.getAuthors(),
+                    book.getPackedPublishedDate(), null, book.getSaleability());
+
+            assertEquals(date, restored.getPublishedDate());
+        }
+    }
+
+    private static void assertNames(List<String> expected, Authors authors) {
+        assertEquals(expected.size(), authors.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), authors.get(i));
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the opening of the circuit and the single trial request once it is half-open.
+ * Circuits opened for no time are half-open right away, so no test has to wait.
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+
+        breaker.onFailure();
+        breaker.onFailure();
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void successResetsFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60000);
+
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void halfOpen_allowsSingleTrial() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        breaker.onFailure();
+
+        assertTrue(breaker.allowRequest());
+        // Concurrent requests are rejected while the trial is in progress
+        assertFalse(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void halfOpen_trialSuccess_closes() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        breaker.onFailure();
+        assertTrue(breaker.allowRequest());
+
+        breaker.onSuccess();
+
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void halfOpen_trialFailure_opensAgain() {
+        CircuitBreaker breaker = new CircuitBreaker(5, 60000);
+        breaker.openFor(0);
+        assertTrue(breaker.allowRequest());
+
+        // A failed trial opens the circuit for another period, below the failure threshold
+        breaker.onFailure();
+
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void openFor_rejectsRequests() {
+        CircuitBreaker breaker = new CircuitBreaker(5, 0);
+
+        breaker.openFor(60000);
+
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+    }
+
+}
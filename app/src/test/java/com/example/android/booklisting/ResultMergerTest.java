@@ -0,0 +1,109 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the merging of overlapping pages returning the same books again.
+ */
+public class ResultMergerTest {
+
+    @Test
+    public void merge_overlappingPages_addsEveryBookOnce() {
+        ResultMerger merger = new ResultMerger();
+
+        ResultMerger.Result first = merger.merge(books("a", "b", "c", "d"));
+        // The results shifted by two between the requests
+        ResultMerger.Result second = merger.merge(books("c", "d", "e", "f"));
+
+        assertEquals(keys("a", "b", "c", "d"), keysOf(first.added));
+        assertEquals(0, first.duplicates);
+        assertEquals(keys("e", "f"), keysOf(second.added));
+        assertEquals(2, second.duplicates);
+        assertTrue(second.updated.isEmpty());
+        assertEquals(6, merger.size());
+    }
+
+    @Test
+    public void merge_duplicateWithinPage_isAddedOnce() {
+        ResultMerger merger = new ResultMerger();
+
+        ResultMerger.Result result = merger.merge(books("a", "b", "a"));
+
+        assertEquals(keys("a", "b"), keysOf(result.added));
+        assertEquals(1, result.duplicates);
+        assertEquals(2, merger.size());
+    }
+
+    @Test
+    public void merge_changedDuplicate_isUpdated() {
+        ResultMerger merger = new ResultMerger();
+        merger.merge(books("a", "b"));
+
+        Book changed = new Book("b", null, "New title", null, null, null);
+        ResultMerger.Result result = merger.merge(Arrays.asList(book("a"), changed, book("c")));
+
+        assertEquals(keys("c"), keysOf(result.added));
+        assertEquals(1, result.updated.size());
+        assertSame(changed, result.updated.get(0));
+        assertEquals(2, result.duplicates);
+    }
+
+    @Test
+    public void merge_booksWithoutId_areMatchedByPreviewLink() {
+        ResultMerger merger = new ResultMerger();
+        merger.merge(Arrays.asList(new Book(null, null, "Title", null, null, "http://preview/1")));
+
+        ResultMerger.Result result = merger.merge(Arrays.asList(
+                new Book(null, null, "Title", null, null, "http://preview/1"),
+                new Book(null, null, "Title", null, null, "http://preview/2")));
+
+        assertEquals(keys("http://preview/2"), keysOf(result.added));
+        assertEquals(1, result.duplicates);
+    }
+
+    @Test
+    public void clear_forgetsMergedBooks() {
+        ResultMerger merger = new ResultMerger();
+        merger.merge(books("a", "b"));
+
+        merger.clear();
+        ResultMerger.Result result = merger.merge(books("b", "c"));
+
+        assertEquals(keys("b", "c"), keysOf(result.added));
+        assertEquals(0, result.duplicates);
+        assertEquals(2, merger.size());
+    }
+
+    private static Book book(String id) {
+        return new Book(id, null, "Title " + id, null, null, null);
+    }
+
+    private static List<Book> books(String... ids) {
+        List<Book> books = new ArrayList<>(ids.length);
+        for (String id : ids) {
+            books.add(book(id));
+        }
+        return books;
+    }
+
+    private static List<String> keys(String... keys) {
+        return Arrays.asList(keys);
+    }
+
+    private static List<String> keysOf(List<Book> books) {
+        List<String> keys = new ArrayList<>(books.size());
+        for (Book book : books) {
+            keys.add(book.getKey());
+        }
+        return keys;
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the backoff of the search request retries, with the delays used by {@link QueryUtils}.
+ */
+public class RetryPolicyTest {
+
+    private static final long BASE_DELAY_MILLIS = 500;
+
+    private static final long MAX_DELAY_MILLIS = 8000;
+
+    @Test
+    public void delay_doublesUpToMax() {
+        RetryPolicy policy = new RetryPolicy(20, BASE_DELAY_MILLIS, MAX_DELAY_MILLIS, new FixedRandom(1));
+
+        assertEquals(500, policy.getDelayMillis(1, 0));
+        assertEquals(1000, policy.getDelayMillis(2, 0));
+        assertEquals(2000, policy.getDelayMillis(3, 0));
+        assertEquals(4000, policy.getDelayMillis(4, 0));
+        assertEquals(8000, policy.getDelayMillis(5, 0));
+        assertEquals(8000, policy.getDelayMillis(6, 0));
+        assertEquals(8000, policy.getDelayMillis(19, 0));
+    }
+
+    @Test
+    public void delay_isJittered() {
+        RetryPolicy policy = new RetryPolicy(20, BASE_DELAY_MILLIS, MAX_DELAY_MILLIS, new FixedRandom(0.25));
+
+        assertEquals(125, policy.getDelayMillis(1, 0));
+        assertEquals(2000, policy.getDelayMillis(10, 0));
+    }
+
+    @Test
+    public void delay_neverExceedsMax() {
+        RetryPolicy policy = new RetryPolicy(Integer.MAX_VALUE, BASE_DELAY_MILLIS, MAX_DELAY_MILLIS,
+                new Random(42));
+
+        for (int attempt = 1; attempt < 100; attempt++) {
+            long delay = policy.getDelayMillis(attempt, 0);
+            if (delay < 0 || delay > MAX_DELAY_MILLIS) {
+                throw new AssertionError("Delay " + delay + " of attempt " + attempt);
+            }
+        }
+    }
+
+    @Test
+    public void delay_honoursRetryAfter() {
+        RetryPolicy policy = new RetryPolicy(3, BASE_DELAY_MILLIS, MAX_DELAY_MILLIS, new FixedRandom(0));
+
+        assertEquals(3000, policy.getDelayMillis(1, 3000));
+        assertEquals(MAX_DELAY_MILLIS, policy.getDelayMillis(2, MAX_DELAY_MILLIS));
+    }
+
+    @Test
+    public void delay_longerThanRetryAfter_isKept() {
+        RetryPolicy policy = new RetryPolicy(3, BASE_DELAY_MILLIS, MAX_DELAY_MILLIS, new FixedRandom(1));
+
+        assertEquals(1000, policy.getDelayMillis(2, 200));
+    }
+
+    @Test
+    public void retryAfterLongerThanMax_isNotRetried() {
+        RetryPolicy policy = new RetryPolicy(3, BASE_DELAY_MILLIS, MAX_DELAY_MILLIS, new FixedRandom(0));
+
+        assertEquals(RetryPolicy.NO_RETRY, policy.getDelayMillis(1, MAX_DELAY_MILLIS + 1));
+    }
+
+    @Test
+    public void lastAttempt_isNotRetried() {
+        RetryPolicy policy = new RetryPolicy(3, BASE_DELAY_MILLIS, MAX_DELAY_MILLIS, new FixedRandom(0));
+
+        assertEquals(0, policy.getDelayMillis(2, 0));
+        assertEquals(RetryPolicy.NO_RETRY, policy.getDelayMillis(3, 0));
+    }
+
+    /** Random whose doubles are all the same, 1 standing for the largest one below 1 */
+    private static final class FixedRandom extends Random {
+
+        private final double mValue;
+
+        FixedRandom(double value) {
+            mValue = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return mValue;
+        }
+    }
+
+}
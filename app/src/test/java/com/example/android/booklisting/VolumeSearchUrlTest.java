@@ -0,0 +1,105 @@
+package com.example.android.booklisting;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the exact search URLs, as built and as received by a local server.
+ */
+public class VolumeSearchUrlTest {
+
+    private static final String PATH = "/books/v1/volumes";
+
+    private static final String FIELDS = "totalItems,items(id,volumeInfo(title,authors,publishedDate,"
+            + "previewLink,imageLinks/thumbnail),saleInfo/saleability)";
+
+    private static final String ENCODED_FIELDS = "totalItems%2Citems%28id%2CvolumeInfo%28title%2Cauthors"
+            + "%2CpublishedDate%2CpreviewLink%2CimageLinks%2Fthumbnail%29%2CsaleInfo%2Fsaleability%29";
+
+    private HttpServer mServer;
+
+    /** Path and query of the last request received by the server */
+    private final AtomicReference<String> mRequestUri = new AtomicReference<>();
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        mServer.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // The raw URI, as sent by the client before any decoding
+                mRequestUri.set(exchange.getRequestURI().toString());
+                byte[] body = "{\"totalItems\":0}".getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void fieldsSelectEveryParsedField() {
+        assertEquals(FIELDS, BookJsonParser.FIELDS);
+    }
+
+    @Test
+    public void build() {
+        assertEquals("https://www.googleapis.com/books/v1/volumes?q=android&maxResults=20"
+                        + "&orderBy=relevance&startIndex=0&fields=" + ENCODED_FIELDS,
+                VolumeSearchUrl.build("https://www.googleapis.com/books/v1/volumes", "android",
+                        0, 20, "relevance", false));
+    }
+
+    @Test
+    public void build_encodesQuery() {
+        assertEquals("http://host/v?q=harry%20potter%20%26%20caf%C3%A9%2Bintitle%3A%22stone%22"
+                        + "&maxResults=40&orderBy=newest&startIndex=80&fields=" + ENCODED_FIELDS,
+                VolumeSearchUrl.build("http://host/v", "harry potter & café+intitle:\"stone\"",
+                        80, 40, "newest", false));
+    }
+
+    @Test
+    public void build_onlyFreeEBooks() {
+        assertEquals("http://host/v?q=java&maxResults=10&orderBy=relevance&startIndex=10"
+                        + "&filter=free-ebooks&fields=" + ENCODED_FIELDS,
+                VolumeSearchUrl.build("http://host/v", "java", 10, 10, "relevance", true));
+    }
+
+    @Test
+    public void build_isSentUnchanged() throws IOException {
+        String baseUrl = "http://localhost:" + mServer.getAddress().getPort() + PATH;
+        String url = VolumeSearchUrl.build(baseUrl, "tolkien, j. r. r. & co", 40, 20, "newest", true);
+
+        HttpClient.Response response = HttpClient.getDefault().get(new URL(url), null);
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, response.getCode());
+        } finally {
+            response.close();
+        }
+        assertEquals(PATH + "?q=tolkien%2C%20j.%20r.%20r.%20%26%20co&maxResults=20&orderBy=newest"
+                + "&startIndex=40&filter=free-ebooks&fields=" + ENCODED_FIELDS, mRequestUri.get());
+    }
+
+}
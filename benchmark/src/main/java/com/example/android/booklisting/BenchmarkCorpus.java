@@ -0,0 +1,35 @@
+package com.example.android.booklisting;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Google Books API responses the benchmarks run on, read from the responses resource directory.
+ * The files are named after the number of items in them. A new response can be added with e.g.
+ * curl "https://www.googleapis.com/books/v1/volumes?q=android&maxResults=40" > volumes_40.json
+ */
+final class BenchmarkCorpus {
+
+    private BenchmarkCorpus() {
+    }
+
+    static byte[] readResponse(String fileName) throws IOException {
+        InputStream in = BenchmarkCorpus.class.getResourceAsStream("/responses/" + fileName);
+        if (in == null) {
+            throw new IOException("No response file " + fileName);
+        }
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.example.android.booklisting;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refining the books of a long scroll session in memory, as done when the user picks an author,
+ * a year or free eBooks, or changes the order, instead of requesting the books again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookIndexBenchmark {
+
+    @Param({"400", "4000"})
+    public int bookCount;
+
+    private List<Book> mBooks;
+
+    private BookIndex mIndex;
+
+    private BookIndex.Query mAuthorAndFree;
+
+    private BookIndex.Query mYearNewestFirst;
+
+    @Setup
+    public void setUp() {
+        mBooks = new ArrayList<>(bookCount);
+        for (int i = 0; i < bookCount; i++) {
+            mBooks.add(new Book("volume" + i, "http://books.google.com/books/content?id=volume" + i,
+                    "Title " + i, Authors.of(Collections.singletonList("Author " + (i % 50))),
+                    Book.packDate((1990 + i % 28) + "-0" + (1 + i % 9) + "-15"), null,
+                    i % 4 == 0 ? Book.SALEABILITY_FREE : Book.SALEABILITY_FOR_SALE));
+        }
+        mIndex = new BookIndex();
+        mIndex.add(mBooks);
+        mAuthorAndFree = new BookIndex.Query("Author 8", BookIndex.ANY, Book.SALEABILITY_FREE, false);
+        mYearNewestFirst = new BookIndex.Query(null, 2010, BookIndex.ANY, true);
+    }
+
+    @Benchmark
+    public int indexBooks() {
+        BookIndex index = new BookIndex();
+        index.add(mBooks);
+        return index.size();
+    }
+
+    @Benchmark
+    public int filterByAuthorAndSaleability() {
+        return mIndex.query(mAuthorAndFree).size();
+    }
+
+    @Benchmark
+    public int filterByYearNewestFirst() {
+        return mIndex.query(mYearNewestFirst).size();
+    }
+
+    @Benchmark
+    public int sortAllNewestFirst() {
+        // The order is cached until the books change, so a change is measured with it
+        mIndex.update(mBooks.subList(0, 1));
+        return mIndex.query(new BookIndex.Query(null, BookIndex.ANY, BookIndex.ANY, true)).size();
+    }
+
+    @Benchmark
+    public BookIndex.Facets countFacets() {
+        return mIndex.facets(BookIndex.Query.ALL);
+    }
+
+}
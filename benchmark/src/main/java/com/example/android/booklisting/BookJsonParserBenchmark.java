@@ -0,0 +1,58 @@
+package com.example.android.booklisting;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of whole volume search responses, from the received bytes to the list of books.
+ * Sample time mode reports the latency percentiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookJsonParserBenchmark {
+
+    @Param({"volumes_0.json", "volumes_1.json", "volumes_10.json", "volumes_40.json"})
+    public String response;
+
+    private byte[] mResponseBytes;
+
+    @Setup
+    public void readResponse() throws IOException {
+        mResponseBytes = BenchmarkCorpus.readResponse(response);
+    }
+
+    @Benchmark
+    public List<Book> parse(Blackhole blackhole) throws IOException {
+        final List<Book> books = new ArrayList<>();
+        int totalItems = BookJsonParser.parse(new ByteArrayInputStream(mResponseBytes),
+                new BookJsonParser.BookHandler() {
+                    @Override
+                    public void onBook(Book book) {
+                        books.add(book);
+                    }
+                });
+        blackhole.consume(totalItems);
+        return books;
+    }
+
+}
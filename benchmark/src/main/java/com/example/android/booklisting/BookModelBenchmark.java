@@ -0,0 +1,54 @@
+package com.example.android.booklisting;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of the book model and of the request URLs, done for every book and every page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookModelBenchmark {
+
+    private static final String REQUEST_URL_BASE = "https://www.googleapis.com/books/v1/volumes";
+
+    // Not final, so the values are not constant-folded into the benchmark methods
+    private String mId = "zG0EAAAAQBAJ";
+    private String mTitle = "Android Programming: The Big Nerd Ranch Guide";
+    private List<String> mAuthors = Arrays.asList("Bill Phillips", "Chris Stewart", "Kristin Marsicano");
+    private String mPublishedDate = "2017-01-30";
+    private String mThumbnailUrl = "http://books.google.com/books/content?id=zG0EAAAAQBAJ"
+            + "&printsec=frontcover&img=1&zoom=1&edge=curl&source=gbs_api";
+    private String mPreviewLink = "http://books.google.com/books?id=zG0EAAAAQBAJ"
+            + "&printsec=frontcover&dq=android&hl=&cd=1&source=gbs_api";
+    private String mQuery = "android programming";
+    private int mStartIndex = 40;
+    private int mPageSize = 40;
+
+    @Benchmark
+    public Book createBook() {
+        return new Book(mId, mThumbnailUrl, mTitle, mAuthors, mPublishedDate, mPreviewLink);
+    }
+
+    @Benchmark
+    public String buildSearchUrl() {
+        return VolumeSearchUrl.build(REQUEST_URL_BASE, mQuery, mStartIndex, mPageSize, "relevance",
+                false);
+    }
+
+}
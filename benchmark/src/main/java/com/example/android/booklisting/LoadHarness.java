@@ -0,0 +1,297 @@
+package com.example.android.booklisting;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test of the fetch pipeline of the app: search pages are requested with {@link HttpClient},
+ * built by {@link VolumeSearchUrl} and parsed by {@link BookJsonParser} by many threads at once,
+ * and the thumbnails of every page are downloaded. It reports the throughput and the latency
+ * percentiles of the pages and of the thumbnails, and the number of responses by status code.
+ * <p>
+ * Without a --url option it starts a {@link StubBooksServer} on a free port, configured by the
+ * stub options, so a run is reproducible and needs no network:
+ * {@code ./gradlew :benchmark:loadTest -Pargs="--threads=64 --requests=5000 --latency=20"}.
+ */
+public final class LoadHarness {
+
+    /** Pages are requested up to this start index, like a long scroll session */
+    private static final int MAX_START_INDEX = 1000;
+
+    private String mBaseUrl;
+
+    private int mThreads = 32;
+
+    private int mRequests = 2000;
+
+    /** Requests made before the measured ones, to warm up the JIT and the connection pool */
+    private int mWarmupRequests = 200;
+
+    private int mPageSize = PAGE_SIZE;
+
+    /** Number of different queries, requested in turns */
+    private int mQueries = 20;
+
+    private boolean mThumbnails = true;
+
+    /** Timeouts of the requests, the defaults of the app unless set */
+    private int mConnectTimeoutMillis = HttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+    private int mReadTimeoutMillis = HttpClient.DEFAULT_READ_TIMEOUT_MILLIS;
+
+    private static final int PAGE_SIZE = 40;
+
+    private LoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadHarness harness = new LoadHarness();
+        List<String> stubArgs = new ArrayList<>();
+        stubArgs.add("--port=0");
+        for (String arg : args) {
+            if (!harness.parseOption(arg)) {
+                stubArgs.add(arg);
+            }
+        }
+
+        StubBooksServer server = null;
+        if (harness.mBaseUrl == null) {
+            server = new StubBooksServer(StubBooksServer.Options.parse(
+                    stubArgs.toArray(new String[stubArgs.size()])));
+            server.start();
+            harness.mBaseUrl = server.getBaseUrl();
+        }
+        try {
+            harness.run();
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    // Returns false if the argument isn't an option of the harness
+    private boolean parseOption(String arg) {
+        int separator = arg.indexOf('=');
+        if (!arg.startsWith("--") || separator < 0) {
+            return false;
+        }
+        String name = arg.substring(2, separator);
+        String value = arg.substring(separator + 1);
+        if ("url".equals(name)) {
+            mBaseUrl = value;
+        } else if ("threads".equals(name)) {
+            mThreads = Integer.parseInt(value);
+        } else if ("requests".equals(name)) {
+            mRequests = Integer.parseInt(value);
+        } else if ("warmup".equals(name)) {
+            mWarmupRequests = Integer.parseInt(value);
+        } else if ("page-size".equals(name)) {
+            mPageSize = Integer.parseInt(value);
+        } else if ("queries".equals(name)) {
+            mQueries = Integer.parseInt(value);
+        } else if ("thumbnails".equals(name)) {
+            mThumbnails = Boolean.parseBoolean(value);
+        } else if ("connect-timeout".equals(name)) {
+            mConnectTimeoutMillis = Integer.parseInt(value);
+        } else if ("read-timeout".equals(name)) {
+            mReadTimeoutMillis = Integer.parseInt(value);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void run() throws InterruptedException {
+        System.out.println("Loading " + mBaseUrl + " with " + mThreads + " threads");
+        // Requests timing out are counted as failed connections
+        HttpClient.getDefault().setTimeouts(mConnectTimeoutMillis, mReadTimeoutMillis);
+        if (mWarmupRequests > 0) {
+            runRequests(0, mWarmupRequests);
+        }
+
+        HttpClient client = HttpClient.getDefault();
+        long bytesBefore = client.getBytesReceived();
+        Run run = runRequests(mWarmupRequests, mRequests);
+        long bytesReceived = client.getBytesReceived() - bytesBefore;
+
+        double seconds = run.elapsedNanos / 1e9;
+        System.out.println(String.format(Locale.US, "%d page requests in %.2f s, %.1f books/s, %.1f MB received",
+                mRequests, seconds, run.books.get() / seconds, bytesReceived / 1e6));
+        run.pages.print("pages", seconds);
+        if (mThumbnails) {
+            run.thumbnails.print("thumbnails", seconds);
+        }
+        System.out.println("responses by status code (-1 for failed connections): " + run.getCodeCounts());
+    }
+
+    // Makes the requests with the given sequence numbers from all the threads and waits for them
+    private Run runRequests(int first, int count) throws InterruptedException {
+        final Run run = new Run(count);
+        final AtomicInteger next = new AtomicInteger(first);
+        final int end = first + count;
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < mThreads; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int request = next.getAndIncrement(); request < end;
+                         request = next.getAndIncrement()) {
+                        loadPage(request, run);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        run.elapsedNanos = System.nanoTime() - startTime;
+        return run;
+    }
+
+    private void loadPage(int request, Run run) {
+        String query = "load test " + (request % mQueries);
+        int startIndex = (request / mQueries * mPageSize) % MAX_START_INDEX;
+        String url = VolumeSearchUrl.build(mBaseUrl, query, startIndex, mPageSize, "relevance", false);
+
+        final List<Book> books = new ArrayList<>(mPageSize);
+        long startTime = System.nanoTime();
+        int code = get(url, new BodyReader() {
+            @Override
+            public void read(InputStream body) throws IOException {
+                BookJsonParser.parse(body, new BookJsonParser.BookHandler() {
+                    @Override
+                    public void onBook(Book book) {
+                        books.add(book);
+                    }
+                });
+            }
+        });
+        run.pages.add(System.nanoTime() - startTime);
+        run.countCode(code);
+        run.books.addAndGet(books.size());
+
+        if (mThumbnails) {
+            for (Book book : books) {
+                if (book.getThumbnailUrl() != null) {
+                    startTime = System.nanoTime();
+                    run.countCode(get(book.getThumbnailUrl(), null));
+                    run.thumbnails.add(System.nanoTime() - startTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the body of a successful response.
+     */
+    private interface BodyReader {
+        void read(InputStream body) throws IOException;
+    }
+
+    // Returns the response code, or -1 if the request failed. Closing the response reads the rest
+    // of the body, so unread bodies are downloaded too.
+    private static int get(String url, BodyReader reader) {
+        HttpClient.Response response = null;
+        try {
+            response = HttpClient.getDefault().get(new URL(url), null);
+            if (response.getCode() == HttpURLConnection.HTTP_OK && reader != null) {
+                reader.read(response.getBody());
+            }
+            return response.getCode();
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Results of the requests of one run.
+     */
+    private static final class Run {
+
+        final Latencies pages;
+
+        final Latencies thumbnails;
+
+        final AtomicInteger books = new AtomicInteger();
+
+        private final Map<Integer, AtomicInteger> mCodes = new TreeMap<>();
+
+        long elapsedNanos;
+
+        Run(int requests) {
+            pages = new Latencies(requests);
+            thumbnails = new Latencies(requests * PAGE_SIZE);
+        }
+
+        synchronized void countCode(int code) {
+            AtomicInteger count = mCodes.get(code);
+            if (count == null) {
+                count = new AtomicInteger();
+                mCodes.put(code, count);
+            }
+            count.incrementAndGet();
+        }
+
+        synchronized String getCodeCounts() {
+            return mCodes.toString();
+        }
+    }
+
+    /**
+     * Durations of all the requests of a kind, kept to compute exact percentiles.
+     */
+    private static final class Latencies {
+
+        private long[] mNanos;
+
+        private int mCount;
+
+        Latencies(int capacity) {
+            mNanos = new long[Math.max(16, capacity)];
+        }
+
+        synchronized void add(long nanos) {
+            if (mCount == mNanos.length) {
+                mNanos = Arrays.copyOf(mNanos, mCount * 2);
+            }
+            mNanos[mCount++] = nanos;
+        }
+
+        synchronized void print(String name, double seconds) {
+            if (mCount == 0) {
+                System.out.println(name + ": none");
+                return;
+            }
+            long[] sorted = Arrays.copyOf(mNanos, mCount);
+            Arrays.sort(sorted);
+            System.out.println(String.format(Locale.US,
+                    "%s: %d at %.1f/s, latency ms p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f",
+                    name, mCount, mCount / seconds, percentile(sorted, 50), percentile(sorted, 90),
+                    percentile(sorted, 99), percentile(sorted, 99.9), sorted[mCount - 1] / 1e6));
+        }
+
+        // Nearest-rank percentile in milliseconds
+        private static double percentile(long[] sorted, double percentile) {
+            int rank = (int) Math.ceil(sorted.length * percentile / 100);
+            return sorted[Math.max(0, rank - 1)] / 1e6;
+        }
+    }
+
+}
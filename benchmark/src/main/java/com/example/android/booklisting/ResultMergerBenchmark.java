@@ -0,0 +1,66 @@
+package com.example.android.booklisting;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging of the pages of a long scroll session whose pages overlap, like the shifted pages
+ * the API returns for start indexes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultMergerBenchmark {
+
+    private static final int PAGE_SIZE = 40;
+
+    /** Number of books of every page repeated from the previous one */
+    private static final int OVERLAP = 5;
+
+    @Param({"10", "100"})
+    public int pageCount;
+
+    private List<List<Book>> mPages;
+
+    @Setup
+    public void setUp() {
+        mPages = new ArrayList<>(pageCount);
+        for (int page = 0; page < pageCount; page++) {
+            List<Book> books = new ArrayList<>(PAGE_SIZE);
+            int first = page * (PAGE_SIZE - OVERLAP);
+            for (int i = first; i < first + PAGE_SIZE; i++) {
+                books.add(new Book("volume" + i, "http://books.google.com/books/content?id=volume" + i,
+                        "Title " + i, Collections.singletonList("Author " + (i % 50)), "2017-01-30", null));
+            }
+            mPages.add(books);
+        }
+    }
+
+    @Benchmark
+    public int mergePages() {
+        ResultMerger merger = new ResultMerger();
+        int added = 0;
+        for (List<Book> page : mPages) {
+            added += merger.merge(page).added.size();
+        }
+        return added;
+    }
+
+}
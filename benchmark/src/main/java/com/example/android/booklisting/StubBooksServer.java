@@ -0,0 +1,438 @@
+package com.example.android.booklisting;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Local stand-in for the Google Books API, so the app and {@link LoadHarness} can be measured
+ * without the real server. Search pages are built from the items of the recorded
+ * volumes_40.json response, repeated with distinct IDs up to the configured number of results,
+ * and their thumbnails point to generated images served by the stub itself. Every request can be
+ * delayed, fail with 503 or be throttled with 429 and a Retry-After header.
+ * <p>
+ * The latency and failures of a request are drawn from a random generator seeded with the seed,
+ * the URL and the number of times the URL was requested before, so a run with the same options
+ * and requests gets the same responses whatever the order in which concurrent requests arrive.
+ * <p>
+ * Run it with {@code ./gradlew :benchmark:stubServer -Pargs="--latency=100 --errors=0.05"}.
+ * The volumes endpoint is at {@code http://localhost:8080/books/v1/volumes}.
+ */
+public final class StubBooksServer {
+
+    /** Path of the volumes endpoint, the same as the one of the Google Books API */
+    static final String VOLUMES_PATH = "/books/v1/volumes";
+
+    private static final String THUMBNAILS_PATH = "/thumbnails/";
+
+    /** Largest maxResults accepted by the API */
+    private static final int MAX_RESULTS = 40;
+
+    private static final int THUMBNAIL_WIDTH = 128;
+
+    private static final int THUMBNAIL_HEIGHT = 192;
+
+    /** Number of different thumbnails, shared by the books whose IDs have the same hash */
+    private static final int THUMBNAIL_VARIANTS = 64;
+
+    /**
+     * Behavior of the stub, set from the command line options of the same names.
+     */
+    static final class Options {
+
+        /** Port to listen on, or 0 for any free port */
+        int port = 8080;
+
+        /** Smallest delay of every response */
+        int latencyMillis = 50;
+
+        /** Largest random delay added to {@link #latencyMillis} */
+        int jitterMillis = 50;
+
+        /** Fraction of the requests failing with 503 Service Unavailable */
+        double errorRate;
+
+        /** Fraction of the requests rejected with 429 Too Many Requests */
+        double throttleRate;
+
+        /** Value of the Retry-After header of the throttled requests */
+        int retryAfterSeconds = 1;
+
+        /** Number of results of every query */
+        int totalItems = 1000;
+
+        long seed = 1;
+
+        /**
+         * Return the options set by arguments like --latency=100, the others keeping their defaults.
+         */
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int separator = arg.indexOf('=');
+                if (!arg.startsWith("--") || separator < 0) {
+                    throw new IllegalArgumentException("Expected --name=value, got " + arg);
+                }
+                String name = arg.substring(2, separator);
+                String value = arg.substring(separator + 1);
+                if ("port".equals(name)) {
+                    options.port = Integer.parseInt(value);
+                } else if ("latency".equals(name)) {
+                    options.latencyMillis = Integer.parseInt(value);
+                } else if ("jitter".equals(name)) {
+                    options.jitterMillis = Integer.parseInt(value);
+                } else if ("errors".equals(name)) {
+                    options.errorRate = Double.parseDouble(value);
+                } else if ("throttle".equals(name)) {
+                    options.throttleRate = Double.parseDouble(value);
+                } else if ("retry-after".equals(name)) {
+                    options.retryAfterSeconds = Integer.parseInt(value);
+                } else if ("total-items".equals(name)) {
+                    options.totalItems = Integer.parseInt(value);
+                } else if ("seed".equals(name)) {
+                    options.seed = Long.parseLong(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + name);
+                }
+            }
+            return options;
+        }
+    }
+
+    static {
+        // Headers and body are written separately, which Nagle's algorithm would hold back
+        // until the delayed ACK of the client, adding about 40 ms to every response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final Options mOptions;
+
+    /** Recorded items, kept as JSON text and parsed again for every response */
+    private final List<String> mItems = new ArrayList<>();
+
+    /** Number of times every URL has been requested */
+    private final ConcurrentHashMap<String, AtomicInteger> mAttempts = new ConcurrentHashMap<>();
+
+    /** Volumes responses by host and request URI */
+    private final ConcurrentHashMap<String, Body> mBodies = new ConcurrentHashMap<>();
+
+    /** Thumbnails by variant, created when first requested */
+    private final ConcurrentHashMap<Integer, byte[]> mThumbnails = new ConcurrentHashMap<>();
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+
+    private HttpServer mServer;
+
+    private ExecutorService mExecutor;
+
+    StubBooksServer(Options options) throws IOException {
+        mOptions = options;
+        JsonObject response = new JsonParser().parse(
+                new String(BenchmarkCorpus.readResponse("volumes_40.json"), "UTF-8")).getAsJsonObject();
+        for (JsonElement item : response.getAsJsonArray("items")) {
+            mItems.add(item.toString());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        StubBooksServer server = new StubBooksServer(Options.parse(args));
+        server.start();
+        System.out.println("Serving " + server.getBaseUrl() + ", press Ctrl+C to stop");
+    }
+
+    void start() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(mOptions.port), 0);
+        // Responses are delayed by sleeping, so every request needs its own thread
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+        mServer.createContext(VOLUMES_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleVolumes(exchange);
+            }
+        });
+        mServer.createContext(THUMBNAILS_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleThumbnail(exchange);
+            }
+        });
+        mServer.start();
+    }
+
+    void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Return the URL of the volumes endpoint, to be used instead of the one of the Google Books API.
+     */
+    String getBaseUrl() {
+        return "http://localhost:" + mServer.getAddress().getPort() + VOLUMES_PATH;
+    }
+
+    int getRequestCount() {
+        return mRequests.get();
+    }
+
+    private void handleVolumes(HttpExchange exchange) throws IOException {
+        try {
+            if (!delayOrFail(exchange)) {
+                return;
+            }
+            // Thumbnail links use the host the client asked for, e.g. 10.0.2.2 from an emulator,
+            // so it is part of the key of the built responses
+            String host = exchange.getRequestHeaders().getFirst("Host");
+            String key = host + exchange.getRequestURI();
+            Body body = mBodies.get(key);
+            if (body == null) {
+                JsonElement response;
+                try {
+                    response = createVolumesResponse(exchange, "http://" + host + THUMBNAILS_PATH);
+                } catch (IllegalArgumentException e) {
+                    sendEmpty(exchange, 400);
+                    return;
+                }
+                if (response == null) {
+                    sendEmpty(exchange, 404);
+                    return;
+                }
+                // Built once, so the stub doesn't add its own processing time to the latency
+                body = new Body(response.toString().getBytes("UTF-8"));
+                mBodies.putIfAbsent(key, body);
+            }
+            sendJson(exchange, body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Returns the search page or the volume asked for, or null if there is no such volume.
+    // Throws IllegalArgumentException if the request is invalid.
+    private JsonElement createVolumesResponse(HttpExchange exchange, String thumbnailUrlBase)
+            throws UnsupportedEncodingException {
+        String path = exchange.getRequestURI().getPath();
+        if (path.length() > VOLUMES_PATH.length() + 1) {
+            // Lookup of a single volume by its ID
+            return createItem(path.substring(VOLUMES_PATH.length() + 1), thumbnailUrlBase);
+        }
+
+        Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+        String query = parameters.get("q");
+        int startIndex = parseInt(parameters.get("startIndex"), 0);
+        int maxResults = parseInt(parameters.get("maxResults"), 10);
+        if (query == null || startIndex < 0 || maxResults < 1 || maxResults > MAX_RESULTS) {
+            throw new IllegalArgumentException("Invalid search " + exchange.getRequestURI());
+        }
+
+        JsonObject page = new JsonObject();
+        page.addProperty("kind", "books#volumes");
+        page.addProperty("totalItems", mOptions.totalItems);
+        int end = Math.min(mOptions.totalItems, startIndex + maxResults);
+        if (startIndex < end) {
+            JsonArray items = new JsonArray();
+            String prefix = Integer.toHexString(query.hashCode());
+            for (int index = startIndex; index < end; index++) {
+                items.add(createItem(prefix + "-" + index, thumbnailUrlBase));
+            }
+            page.add("items", items);
+        }
+        return page;
+    }
+
+    private void handleThumbnail(HttpExchange exchange) throws IOException {
+        try {
+            if (!delayOrFail(exchange)) {
+                return;
+            }
+            String id = exchange.getRequestURI().getPath().substring(THUMBNAILS_PATH.length());
+            // Encoding is slow, so only a few images are made instead of one per book
+            int variant = (id.hashCode() & Integer.MAX_VALUE) % THUMBNAIL_VARIANTS;
+            byte[] thumbnail = mThumbnails.get(variant);
+            if (thumbnail == null) {
+                thumbnail = createThumbnail(variant);
+                mThumbnails.putIfAbsent(variant, thumbnail);
+            }
+            exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+            // Thumbnails are already compressed, so like the real ones they are sent as they are
+            send(exchange, 200, thumbnail);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Waits for the latency of the request and returns true, or sends its failure and returns false
+    private boolean delayOrFail(HttpExchange exchange) throws IOException {
+        mRequests.incrementAndGet();
+        String url = exchange.getRequestURI().toString();
+        AtomicInteger attempts = mAttempts.get(url);
+        if (attempts == null) {
+            mAttempts.putIfAbsent(url, new AtomicInteger());
+            attempts = mAttempts.get(url);
+        }
+        int attempt = attempts.getAndIncrement();
+        Random random = new Random(mOptions.seed * 1000003L + url.hashCode() * 31L + attempt);
+
+        int delayMillis = mOptions.latencyMillis
+                + (mOptions.jitterMillis > 0 ? random.nextInt(mOptions.jitterMillis + 1) : 0);
+        double failure = random.nextDouble();
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        if (failure < mOptions.throttleRate) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(mOptions.retryAfterSeconds));
+            sendEmpty(exchange, 429);
+            return false;
+        } else if (failure < mOptions.throttleRate + mOptions.errorRate) {
+            sendEmpty(exchange, 503);
+            return false;
+        }
+        return true;
+    }
+
+    // Returns the recorded item for a stub ID made of a query prefix and a result index,
+    // with the ID and the thumbnail link of the stub, or null if the ID is not one of the stub
+    private JsonObject createItem(String id, String thumbnailUrlBase) {
+        int separator = id.lastIndexOf('-');
+        int index = separator < 0 ? -1 : parseInt(id.substring(separator + 1), -1);
+        if (index < 0) {
+            return null;
+        }
+        JsonObject item = new JsonParser().parse(mItems.get(index % mItems.size())).getAsJsonObject();
+        item.addProperty("id", id);
+        JsonObject volumeInfo = item.getAsJsonObject("volumeInfo");
+        if (volumeInfo != null) {
+            JsonObject imageLinks = new JsonObject();
+            imageLinks.addProperty("thumbnail", thumbnailUrlBase + id);
+            volumeInfo.add("imageLinks", imageLinks);
+        }
+        return item;
+    }
+
+    // Draws a cover in a color of its own, so the thumbnails have different placeholder colors
+    private static byte[] createThumbnail(int variant) throws IOException {
+        BufferedImage image = new BufferedImage(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            Random random = new Random(variant);
+            graphics.setColor(new Color(random.nextInt(0x1000000)));
+            graphics.fillRect(0, 0, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+            graphics.setColor(Color.WHITE);
+            graphics.drawString("#" + variant, 8, THUMBNAIL_HEIGHT / 2);
+        } finally {
+            graphics.dispose();
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", output);
+        return output.toByteArray();
+    }
+
+    // Sends the JSON body like the API does, with an ETag answered with 304 if it hasn't changed
+    private static void sendJson(HttpExchange exchange, Body body) throws IOException {
+        exchange.getResponseHeaders().set("ETag", body.eTag);
+        if (body.eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            sendEmpty(exchange, 304);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            send(exchange, 200, body.gzipped);
+        } else {
+            send(exchange, 200, body.json);
+        }
+    }
+
+    private static void sendEmpty(HttpExchange exchange, int code) throws IOException {
+        exchange.sendResponseHeaders(code, -1);
+    }
+
+    private static void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(code, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * JSON response body, kept with its compressed form and its ETag.
+     */
+    private static final class Body {
+
+        final byte[] json;
+
+        final byte[] gzipped;
+
+        final String eTag;
+
+        Body(byte[] json) throws IOException {
+            this.json = json;
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 4);
+            GZIPOutputStream out = new GZIPOutputStream(compressed);
+            out.write(json);
+            out.close();
+            this.gzipped = compressed.toByteArray();
+            this.eTag = "\"" + Integer.toHexString(Arrays.hashCode(json)) + "\"";
+        }
+    }
+
+}
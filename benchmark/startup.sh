@@ -0,0 +1,23 @@
+#!/bin/sh
+# Measures the cold start of the app on a connected device or emulator.
+# Each run kills the app, starts it again and reports the launch time given by the activity
+# manager and the times to the first frame and to the first books logged by MainActivity.
+#
+# Usage: benchmark/startup.sh [runs]
+
+PACKAGE=com.example.android.booklisting
+ACTIVITY=$PACKAGE/.MainActivity
+RUNS=${1:-10}
+
+i=1
+while [ "$i" -le "$RUNS" ]; do
+    adb shell am force-stop "$PACKAGE"
+    adb logcat -c
+    total=$(adb shell am start -W -S -n "$ACTIVITY" | tr -d '\r' | sed -n 's/^TotalTime: //p')
+    # Leave time for the books of the last session to be drawn
+    sleep 3
+    frame=$(adb logcat -d | tr -d '\r' | sed -n 's/.*Startup: first frame in \([0-9]*\) ms.*/\1/p')
+    content=$(adb logcat -d | tr -d '\r' | sed -n 's/.*Startup: first books in \([0-9]*\) ms.*/\1/p')
+    echo "run $i: launch ${total:--} ms, first frame ${frame:--} ms, first books ${content:--} ms"
+    i=$((i + 1))
+done